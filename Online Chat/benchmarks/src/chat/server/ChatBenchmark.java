@@ -0,0 +1,75 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// one chat of two users holding the given number of messages, kept in memory without a journal
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChatBenchmark {
+    private static final int PAGE = 25;
+    @Param({"100", "10000", "100000"})
+    private int history;
+    private final User alice = new User("alice", 1);
+    private final User bob = new User("bob", 2);
+    private Chat chat;
+    private Message message;
+    private int from;
+
+    // sendMessage keeps growing the chat, so it is filled again before every iteration
+    @Setup(Level.Iteration)
+    public void fill() {
+        chat = new Chat(Set.of(alice, bob));
+        for (int i = 0; i < history; i++) {
+            chat.sendMessage(new Message(i % 2 == 0 ? alice : bob, "message number " + i));
+        }
+        message = new Message(alice, "a message of a fairly typical length");
+        from = 1;
+    }
+
+    @Benchmark
+    public int sendMessage() {
+        return chat.sendMessage(message);
+    }
+
+    @Benchmark
+    public List<Frame> getLastMessages() {
+        return chat.getLastMessages(alice);
+    }
+
+    @Benchmark
+    public HistoryPage getHistory() {
+        return chat.getHistory(history / 2);
+    }
+
+    // walks through the whole history, so the pages mostly miss the page cache
+    @Benchmark
+    public HistoryPage getHistoryPage() {
+        HistoryPage page = chat.getHistoryPage(from, PAGE);
+        from = from + PAGE > history ? 1 : from + PAGE;
+        return page;
+    }
+
+    @Benchmark
+    public int countMessages() {
+        return chat.countMessages(alice);
+    }
+}
@@ -0,0 +1,60 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// every user chats with the next one, lookups go round all of them so they are not served from one cache line
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ChatsCollectionBenchmark {
+    @Param({"1000", "100000"})
+    private int users;
+    private User[] members;
+    private ChatsCollection chats;
+    private int next;
+
+    @Setup
+    public void fill() {
+        members = new User[users];
+        for (int i = 0; i < users; i++) {
+            members[i] = new User("user" + i, i);
+        }
+        chats = new ChatsCollection();
+        for (int i = 0; i < users; i++) {
+            chats.getChat(Set.of(members[i], members[(i + 1) % users]));
+        }
+    }
+
+    private int nextUser() {
+        next = next + 1 == users ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Chat getChat() {
+        int user = nextUser();
+        return chats.getChat(Set.of(members[user], members[(user + 1) % users]));
+    }
+
+    @Benchmark
+    public Map<User, Chat> getUserChats() {
+        return chats.getUserChats(members[nextUser()]);
+    }
+}
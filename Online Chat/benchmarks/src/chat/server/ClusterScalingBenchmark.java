@@ -0,0 +1,240 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// messages per second through a cluster of one to four server processes on this machine. Every node owns the same
+// number of chatting pairs: with "local" both users of a pair live on one node, with "cross" the recipient lives on
+// the next node and every message goes over a cluster link. Each pair has a client thread of its own and an operation
+// is one batch from every pair; the messages counter is the rate to compare, on a machine with a core for every node
+// it should grow close to linearly with the nodes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ClusterScalingBenchmark {
+    private static final int PAIRS_PER_NODE = 2;
+    private static final int BATCH = 128;
+    private static final long START_MILLIS = 10_000;
+    @Param({"1", "2", "3", "4"})
+    private int nodes;
+    @Param({"local", "cross"})
+    private String traffic;
+    private final List<Process> servers = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+    private final List<Pair> pairs = new ArrayList<>();
+    private ExecutorService clients;
+    private final String text = "a message of a fairly typical length";
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Delivered {
+        public long messages;
+    }
+
+    private record Pair(Client sender, Client receiver) {
+    }
+
+    private static final class Client {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            in.readUTF();
+        }
+
+        String ask(String command) throws IOException {
+            out.writeUTF(command);
+            out.flush();
+            return in.readUTF();
+        }
+
+        // opening an empty chat prints nothing, the reply to /list shows the chat is open; a user of another node
+        // is only known here once the cluster passed on its registration and presence
+        void open(String name) throws IOException, InterruptedException {
+            while (true) {
+                out.writeUTF("/chat " + name);
+                String reply = ask("/list");
+                if (!reply.contains("not online")) {
+                    return;
+                }
+                in.readUTF();
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    @Setup
+    public void start() throws IOException, InterruptedException {
+        int[] clientPorts = new int[nodes];
+        StringJoiner cluster = new StringJoiner(",");
+        for (int node = 0; node < nodes; node++) {
+            clientPorts[node] = freePort();
+            cluster.add("127.0.0.1:" + clientPorts[node] + ":" + freePort());
+        }
+        for (int node = 0; node < nodes; node++) {
+            start(clientPorts[node], "-Dchat.cluster.nodes=" + cluster, "-Dchat.cluster.node=" + node);
+        }
+        for (int port : clientPorts) {
+            awaitPort(port);
+        }
+        List<String[]> names = new ArrayList<>();
+        for (int node = 0; node < nodes; node++) {
+            int recipientNode = traffic.equals("cross") ? (node + 1) % nodes : node;
+            for (int i = 0; i < PAIRS_PER_NODE; i++) {
+                String sender = nameOn(node, "sender" + node + "x" + i);
+                String receiver = nameOn(recipientNode, "receiver" + node + "x" + i);
+                Pair pair = new Pair(new Client(clientPorts[node]), new Client(clientPorts[recipientNode]));
+                pair.sender().ask("/registration " + sender + " password1");
+                pair.receiver().ask("/registration " + receiver + " password1");
+                pairs.add(pair);
+                names.add(new String[]{sender, receiver});
+            }
+        }
+        for (int i = 0; i < pairs.size(); i++) {
+            pairs.get(i).sender().open(names.get(i)[1]);
+            pairs.get(i).receiver().open(names.get(i)[0]);
+        }
+        for (Pair pair : pairs) {
+            Thread echo = new Thread(() -> {
+                try {
+                    while (true) {
+                        pair.sender().in.readUTF();
+                    }
+                } catch (IOException e) {
+                    //the socket is closed at the end of the trial
+                }
+            }, "benchmark-echo");
+            echo.setDaemon(true);
+            echo.start();
+        }
+        clients = Executors.newFixedThreadPool(pairs.size());
+    }
+
+    @TearDown
+    public void stop() throws IOException, InterruptedException {
+        clients.shutdownNow();
+        for (Pair pair : pairs) {
+            pair.sender().socket.close();
+            pair.receiver().socket.close();
+        }
+        for (Process server : servers) {
+            server.destroyForcibly().waitFor();
+        }
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int sendAndReceive(Delivered delivered) throws Exception {
+        List<Future<String>> batches = new ArrayList<>();
+        for (Pair pair : pairs) {
+            batches.add(clients.submit(() -> {
+                for (int i = 0; i < BATCH; i++) {
+                    pair.sender().out.writeUTF(text);
+                }
+                pair.sender().out.flush();
+                String last = null;
+                for (int i = 0; i < BATCH; i++) {
+                    last = pair.receiver().in.readUTF();
+                }
+                return last;
+            }));
+        }
+        int lengths = 0;
+        for (Future<String> batch : batches) {
+            lengths += batch.get().length();
+        }
+        delivered.messages += (long) BATCH * pairs.size();
+        return lengths;
+    }
+
+    // the node a name belongs to is chosen the way the cluster shards its users
+    private String nameOn(int node, String base) {
+        for (int i = 0; ; i++) {
+            String name = base + "n" + i;
+            if (Math.floorMod(name.hashCode(), nodes) == node) {
+                return name;
+            }
+        }
+    }
+
+    private void start(int port, String... properties) throws IOException {
+        Path directory = Files.createTempDirectory("chat-benchmark");
+        directories.add(directory);
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dchat.port=" + port);
+        command.addAll(List.of(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Server.class.getName());
+        command.add("nio");
+        servers.add(new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("the server did not start on port " + port);
+    }
+}
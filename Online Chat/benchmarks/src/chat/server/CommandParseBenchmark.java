@@ -0,0 +1,73 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// telling chat lines from commands and splitting the commands on mixed traffic, five of eight lines are plain
+// text; scores are per line, run with -prof gc for the allocation per line. The regex variant is the parse the
+// sessions used before the single-pass tokenizer: trim, a prefix scan of the commands, replaceFirst and split
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CommandParseBenchmark {
+    private static final String[] LINES = {
+            "hello there how are you",
+            "/chat bob",
+            "/list",
+            "some longer plain line of chat text here",
+            "/history 10 5",
+            "ok",
+            "/unread",
+            "lol"
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int singlePass() {
+        int parsed = 0;
+        for (String line : LINES) {
+            int start = Session.skipWhitespace(line, 0);
+            //a plain line goes to the open chat as it is
+            if (start == line.length() || line.charAt(start) != '/') {
+                continue;
+            }
+            int end = Session.skipWord(line, start);
+            CommandList command = CommandList.of(line, start, end);
+            parsed += command.ordinal() + Session.splitParameters(line, end).length;
+        }
+        return parsed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int regex() {
+        int parsed = 0;
+        for (String line : LINES) {
+            if (!line.trim().startsWith("/")) {
+                continue;
+            }
+            CommandList command = CommandList.UNKNOWN;
+            for (CommandList candidate : CommandList.values()) {
+                if (line.trim().startsWith(candidate.toString())) {
+                    command = candidate;
+                    break;
+                }
+            }
+            parsed += command.ordinal() + line.replaceFirst(command.toString(), "").trim().split("\\s+").length;
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,71 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// a fresh v2 connection receiving distinct chat lines of about a hundred characters, with the deflater of the
+// connection set up as the server does; the score is the cost per message and the raw and wire counters give the
+// bytes on the wire, their ratio is what compression saves. "off" sends the encoded frames as they are
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionBenchmark {
+    private static final int LINES = 60;
+    private static final String[] WORDS = {"the", "server", "build", "release", "deploy", "fix", "bug", "test",
+            "review", "merge", "code", "meeting", "lunch", "today", "tomorrow", "please", "thanks", "hello", "chat"};
+    @Param({"0", "64", "128", "off"})
+    private String threshold;
+    private final Frame[] frames = new Frame[LINES];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireBytes {
+        public long raw;
+        public long wire;
+    }
+
+    @Setup
+    public void prepare() {
+        Random random = new Random(LINES);
+        for (int i = 0; i < LINES; i++) {
+            StringBuilder line = new StringBuilder("line ").append(i).append(':');
+            for (int words = 10 + random.nextInt(9); words > 0; words--) {
+                line.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            frames[i] = new Frame(FrameType.CHAT, i + 1, "", "bob", Message.SEPARATOR, line.toString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long connection(WireBytes bytes) {
+        FrameCompressor compressor = threshold.equals("off") ? null
+                : new FrameCompressor(Deflater.DEFAULT_COMPRESSION, Integer.parseInt(threshold));
+        long wire = 0;
+        for (Frame frame : frames) {
+            byte[] encoded = frame.encode(Protocol.V2);
+            bytes.raw += encoded.length;
+            wire += compressor == null ? encoded.length : compressor.compress(encoded).length;
+        }
+        bytes.wire += wire;
+        return wire;
+    }
+}
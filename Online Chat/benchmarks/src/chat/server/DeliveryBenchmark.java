@@ -0,0 +1,86 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// one message delivered to every recipient's outbound queue and drained by its writer, scores are per delivered
+// message; run with -prof gc, gc.alloc.rate.norm is the allocation per delivered message. The shared frame is
+// encoded once for all recipients, the per-recipient variant renders and encodes a frame for each of them
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeliveryBenchmark {
+    private static final int RECIPIENTS = 100;
+    @Param({"1", "2"})
+    private String protocol;
+    private final List<byte[]> batch = new ArrayList<>();
+    private OutboundQueue[] queues;
+    private Message message;
+    private long id;
+
+    @Setup
+    public void open() {
+        message = new Message(new User("alice", 1), "a message of a fairly typical length");
+        queues = new OutboundQueue[RECIPIENTS];
+        for (int i = 0; i < RECIPIENTS; i++) {
+            queues[i] = new OutboundQueue(1024, 1L << 20, OverflowPolicy.COALESCE);
+            if (Protocol.of(protocol) != Protocol.V1) {
+                queues[i].upgrade(Protocol.of(protocol), Compression.NONE, new Frame(FrameType.REPLY, 0, "ok"));
+                queues[i].drainTo(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECIPIENTS)
+    public int sharedFrame() {
+        Frame frame = message.toFrame("", ++id);
+        int bytes = 0;
+        for (OutboundQueue queue : queues) {
+            queue.offer(frame);
+            bytes += drain(queue);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECIPIENTS)
+    public int framePerRecipient() {
+        ++id;
+        int bytes = 0;
+        for (OutboundQueue queue : queues) {
+            queue.offer(message.toFrame("", id));
+            bytes += drain(queue);
+        }
+        return bytes;
+    }
+
+    // what the writer of the connection does, the bytes would go to the socket
+    private int drain(OutboundQueue queue) {
+        queue.drainTo(batch);
+        int bytes = 0;
+        for (byte[] frame : batch) {
+            bytes += frame.length;
+        }
+        batch.clear();
+        return bytes;
+    }
+}
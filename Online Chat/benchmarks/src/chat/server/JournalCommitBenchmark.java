@@ -0,0 +1,75 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// several senders appending to one journal in each durability mode; throughput is messages per second and the
+// sample mode gives the commit latency percentiles, p0.99 among them
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JournalCommitBenchmark {
+    private static final long COMMIT_TIMEOUT_MILLIS = 10_000;
+    @Param({"sync", "group", "os"})
+    private String durability;
+    private final User alice = new User("alice", 1);
+    private final User bob = new User("bob", 2);
+    private Path directory;
+    private MessageJournal journal;
+    private Chat chat;
+    private Message message;
+
+    @Setup
+    public void open() throws IOException {
+        UsersCollection users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        directory = Files.createTempDirectory("chat-benchmark");
+        journal = new MessageJournal(directory.resolve("commit.journal"), users, DurabilityMode.of(durability),
+                5, 256);
+        journal.open();
+        chat = new Chat(Set.of(alice, bob));
+        message = new Message(alice, "a message of a fairly typical length");
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // from queuing the record to the writer reporting it written, and forced in the sync and group modes; senders
+    // do not wait for this in the server, they only queue the record
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long appendAndCommit() throws InterruptedException {
+        long offset = journal.appendMessage(chat, message, -1);
+        return journal.awaitCommitted(offset, COMMIT_TIMEOUT_MILLIS);
+    }
+}
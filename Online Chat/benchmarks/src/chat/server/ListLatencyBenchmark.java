@@ -0,0 +1,108 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// the round trip of /list through a server process, from writing the command to reading the reply, with a few
+// other users online so the reply has names in it. A session that polled its receiver every 10 ms answered after
+// 5 ms on average; handing each frame straight to the session leaves the loopback and the command itself
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ListLatencyBenchmark {
+    private static final int OTHERS = 10;
+    private static final long START_MILLIS = 10_000;
+    @Param({"threads", "nio"})
+    private String mode;
+    private Path directory;
+    private Process server;
+    private Socket[] sockets;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    @Setup
+    public void start() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        directory = Files.createTempDirectory("chat-benchmark");
+        server = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.port=" + port, "-cp", System.getProperty("java.class.path"), Server.class.getName(), mode)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        awaitPort(port);
+        sockets = new Socket[OTHERS + 1];
+        for (int i = 0; i <= OTHERS; i++) {
+            sockets[i] = new Socket("127.0.0.1", port);
+            sockets[i].setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            in.readUTF();
+            out.writeUTF("/registration user" + i + " password" + i);
+            out.flush();
+            in.readUTF();
+        }
+    }
+
+    @TearDown
+    public void stop() throws IOException, InterruptedException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.destroyForcibly().waitFor();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public String list() throws IOException {
+        out.writeUTF("/list");
+        out.flush();
+        return in.readUTF();
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("the server did not start on port " + port);
+    }
+}
@@ -0,0 +1,43 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// rendering a message into the bytes sent to every recipient; a frame caches its encoding, so each call makes a new one
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageFormatBenchmark {
+    @Param({"16", "1024"})
+    private int length;
+    @Param({"1", "2"})
+    private String protocol;
+    private Message message;
+    private Protocol wire;
+    private long id;
+
+    @Setup
+    public void prepare() {
+        message = new Message(new User("alice", 1), "x".repeat(length));
+        wire = Protocol.of(protocol);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return message.toFrame("", ++id).encode(wire);
+    }
+}
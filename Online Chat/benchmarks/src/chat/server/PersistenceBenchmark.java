@@ -0,0 +1,143 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// saving and loading messages go through the message journal: a save appends every message of a chat and closes
+// the journal once all of them are written, a load replays the journal the way the server does on start; the
+// journal is not forced to the disk, so the numbers do not depend on the disk the benchmark runs on. The serialized
+// load reads the same chat from the java-serialized layout of messagedb.txt the journal replaced
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class PersistenceBenchmark {
+    @Param({"1000", "100000"})
+    private int messages;
+    private final User alice = new User("alice", 1);
+    private final User bob = new User("bob", 2);
+    private UsersCollection users;
+    private Path directory;
+    private Path saved;
+    private Path loaded;
+    private Path serialized;
+
+    @Setup
+    public void prepare() throws IOException, ReflectiveOperationException {
+        users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        directory = Files.createTempDirectory("chat-benchmark");
+        saved = directory.resolve("saved.journal");
+        loaded = directory.resolve("loaded.journal");
+        save(loaded);
+        serialized = directory.resolve("messagedb.txt");
+        saveSerialized(serialized);
+    }
+
+    @Setup(Level.Invocation)
+    public void clean() throws IOException {
+        Files.deleteIfExists(saved);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private ChatsCollection save(Path path) throws IOException {
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection chats = new ChatsCollection();
+        chats.setStorage(journal, new ChatCache(16, 64L << 20));
+        Chat chat = chats.getChat(Set.of(alice, bob));
+        for (int i = 0; i < messages; i++) {
+            chat.sendMessage(new Message(i % 2 == 0 ? alice : bob, "message number " + i, i));
+        }
+        journal.close();
+        return chats;
+    }
+
+    // every user maps to its chats and a chat holds its messages and the read index of each user; these fields are
+    // only filled by the deserialization, so they are set by reflection
+    private void saveSerialized(Path path) throws IOException, ReflectiveOperationException {
+        Chat chat = new Chat(Set.of(alice, bob));
+        for (int i = 0; i < messages; i++) {
+            chat.sendMessage(new Message(i % 2 == 0 ? alice : bob, "message number " + i, i));
+        }
+        setField(chat, "lastReadIndex", new HashMap<>(Map.of(alice, messages - 1, bob, messages - 1)));
+        ChatsCollection chats = new ChatsCollection();
+        setField(chats, "chats", new HashMap<>(Map.of(alice, new HashMap<>(Map.of(bob, chat)),
+                bob, new HashMap<>(Map.of(alice, chat)))));
+        try (ObjectOutputStream output = new ObjectOutputStream(Files.newOutputStream(path))) {
+            output.writeObject(chats);
+        }
+    }
+
+    private static void setField(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @Benchmark
+    public ChatsCollection saveMessages() throws IOException {
+        return save(saved);
+    }
+
+    @Benchmark
+    public ChatsCollection loadMessages() {
+        return new MessageJournal(loaded, users, DurabilityMode.OS, 5, 256).replay();
+    }
+
+    @Benchmark
+    public ChatsCollection loadSerialized() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new LegacyObjectInputStream(Files.newInputStream(serialized))) {
+            return (ChatsCollection) input.readObject();
+        }
+    }
+
+    // a replay only keeps the offsets, the newest page is then read back from the journal the way /history reads it
+    @Benchmark
+    public HistoryPage loadAndBrowse() throws IOException {
+        MessageJournal journal = new MessageJournal(loaded, users, DurabilityMode.OS, 5, 256);
+        ChatsCollection chats = journal.replay();
+        journal.open();
+        try {
+            chats.setStorage(journal, new ChatCache(16, 64L << 20));
+            return chats.getChat(Set.of(alice, bob)).getHistory(25);
+        } finally {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// messages per second through a server process in the v1 and v2 framing: one client pipelines a batch of messages
+// into a private chat and the other reads them back. The batch stays within the default outbound queue, so nothing
+// is dropped; the echo to the sender is read and thrown away by a thread of its own
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProtocolBenchmark {
+    private static final int BATCH = 256;
+    private static final long START_MILLIS = 10_000;
+    @Param({"threads", "nio"})
+    private String mode;
+    @Param({"1", "2"})
+    private String protocol;
+    @Param({"20", "2048"})
+    private int length;
+    private Path directory;
+    private Process server;
+    private Client sender;
+    private Client receiver;
+    private String text;
+
+    private static final class Client {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final FrameAssembler assembler = new FrameAssembler(1 << 20);
+        private final Protocol protocol;
+        private long lastRequestId;
+
+        Client(int port, Protocol protocol) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            this.protocol = protocol;
+            in.readUTF();
+            if (protocol != Protocol.V1) {
+                out.writeUTF("/protocol " + protocol);
+                out.flush();
+                in.readUTF();
+            }
+        }
+
+        void write(FrameType type, String text) throws IOException {
+            if (protocol == Protocol.V1) {
+                out.writeUTF(text);
+            } else {
+                out.write(Frames.encodeChunked(type, ++lastRequestId, text));
+            }
+        }
+
+        String ask(String command) throws IOException {
+            write(FrameType.COMMAND, command);
+            out.flush();
+            return read();
+        }
+
+        // opening an empty chat prints nothing, the reply to /list shows the chat is open
+        void open(String name) throws IOException {
+            write(FrameType.COMMAND, "/chat " + name);
+            ask("/list");
+        }
+
+        String read() throws IOException {
+            if (protocol == Protocol.V1) {
+                return in.readUTF();
+            }
+            while (true) {
+                byte[] body = new byte[Frames.readLength(in)];
+                in.readFully(body);
+                if (assembler.add(ByteBuffer.wrap(body), body.length)) {
+                    return assembler.takeText();
+                }
+            }
+        }
+    }
+
+    @Setup
+    public void start() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        directory = Files.createTempDirectory("chat-benchmark");
+        server = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.port=" + port, "-cp", System.getProperty("java.class.path"), Server.class.getName(), mode)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        awaitPort(port);
+        Protocol wire = Protocol.of(protocol);
+        sender = new Client(port, wire);
+        receiver = new Client(port, wire);
+        sender.ask("/registration alice password1");
+        receiver.ask("/registration bob password2");
+        sender.open("bob");
+        receiver.open("alice");
+        Thread echo = new Thread(() -> {
+            try {
+                while (true) {
+                    sender.read();
+                }
+            } catch (IOException e) {
+                //the socket is closed at the end of the trial
+            }
+        }, "benchmark-echo");
+        echo.setDaemon(true);
+        echo.start();
+        text = "m".repeat(length);
+    }
+
+    @TearDown
+    public void stop() throws IOException, InterruptedException {
+        sender.socket.close();
+        receiver.socket.close();
+        server.destroyForcibly().waitFor();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public String sendAndReceive() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            sender.write(FrameType.CHAT, text);
+        }
+        sender.out.flush();
+        String last = null;
+        for (int i = 0; i < BATCH; i++) {
+            last = receiver.read();
+        }
+        return last;
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("the server did not start on port " + port);
+    }
+}
@@ -0,0 +1,69 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// one message posted to a room and handed to the outbound of every member, numbering and fan-out happen under the
+// room lock; the contended variant has four senders posting to the same room
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoomFanOutBenchmark {
+    @Param({"1000"})
+    private int members;
+    private Room room;
+
+    // keeps the last frame, so the frames are not optimized away
+    private static class Discard implements Outbound {
+        private Frame last;
+
+        @Override
+        public void printFrame(Frame frame) {
+            last = frame;
+        }
+
+        @Override
+        public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        }
+
+        @Override
+        public OutboundQueue getQueue() {
+            return null;
+        }
+    }
+
+    @Setup
+    public void fill() {
+        Server server = new Server(0, ServerMode.THREADS);
+        room = new Room("benchmark");
+        for (int i = 0; i < members; i++) {
+            room.add(new Session(new Discard(), server));
+        }
+    }
+
+    @Benchmark
+    public long post() {
+        return room.post("alice", "a message of a fairly typical length");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long postContended() {
+        return room.post("alice", "a message of a fairly typical length");
+    }
+}
@@ -0,0 +1,76 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// command parsing and dispatch of a session logged in as alice with the chat to bob open, so a plain line is sent to
+// that chat and commands run against the registry and the chat; the server is never started and nothing is
+// journaled, the chat is new each iteration so its messages do not pile up
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SessionBenchmark {
+    @Param({"/list", "/history 25 50", "/unknown command with a few words", "a plain message to the open chat"})
+    private String input;
+    private final Discard outbound = new Discard();
+    private Session session;
+    private int commandEnd;
+
+    // keeps the last reply, so the frames are not optimized away
+    private static class Discard implements Outbound {
+        private Frame last;
+
+        @Override
+        public void printFrame(Frame frame) {
+            last = frame;
+        }
+
+        @Override
+        public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        }
+
+        @Override
+        public OutboundQueue getQueue() {
+            return null;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void open() {
+        UsersCollection users = new UsersCollection();
+        users.addUser(new User("alice", "password1".hashCode()));
+        users.addUser(new User("bob", "password2".hashCode()));
+        Server server = new Server(0, ServerMode.THREADS, users, new ChatsCollection());
+        new Session(new Discard(), server).handleInput("/auth bob password2");
+        session = new Session(outbound, server);
+        session.handleInput("/auth alice password1");
+        session.handleInput("/chat bob");
+        commandEnd = input.indexOf(' ') < 0 ? input.length() : input.indexOf(' ');
+    }
+
+    @Benchmark
+    public Frame handleInput() {
+        session.handleInput(input);
+        return outbound.last;
+    }
+
+    @Benchmark
+    public CommandList lookUpCommand() {
+        return CommandList.of(input, 0, commandEnd);
+    }
+}
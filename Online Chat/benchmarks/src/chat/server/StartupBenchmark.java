@@ -0,0 +1,104 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// what the server does with the message journal before its first accept: replay it and open it for appending;
+// after a clean shutdown the index covers the whole journal, after a crash only the part written before the last
+// periodic index, without an index every record is read
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class StartupBenchmark {
+    //the default distance between two periodic indexes, the most a crash leaves to replay
+    private static final long INDEX_BYTES = 16L << 20;
+    private static final int COMMIT_EVERY = 100_000;
+    @Param({"10000"})
+    private int chats;
+    @Param({"1000000", "10000000"})
+    private int messages;
+    @Param({"clean", "crash", "none"})
+    private String shutdown;
+    private UsersCollection users;
+    private Path directory;
+    private Path path;
+
+    @Setup
+    public void fill() throws IOException, InterruptedException {
+        users = new UsersCollection();
+        User[] members = new User[chats];
+        for (int i = 0; i < chats; i++) {
+            members[i] = new User("user" + i, i);
+            users.addUser(members[i]);
+        }
+        directory = Files.createTempDirectory("chat-benchmark");
+        path = directory.resolve("startup.journal");
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection collection = new ChatsCollection();
+        //a small cache pages the chats out, so the bodies of the messages do not stay on the heap
+        collection.setStorage(journal, new ChatCache(16, 1 << 20));
+        Chat[] all = new Chat[chats];
+        for (int i = 0; i < chats; i++) {
+            all[i] = collection.getChat(Set.of(members[i], members[(i + 1) % chats]));
+        }
+        boolean indexed = false;
+        for (int i = 0; i < messages; i++) {
+            Chat chat = all[i % chats];
+            chat.sendMessage(new Message(members[i % chats], "message number " + i, i));
+            //keeps the queue of the journal writer short
+            if (i % COMMIT_EVERY == COMMIT_EVERY - 1) {
+                journal.awaitCommitted(chat.getLastOffset(), Long.MAX_VALUE);
+            }
+            long remaining = (long) (messages - i - 1) * journal.getLength() / (i + 1);
+            if (shutdown.equals("crash") && !indexed && remaining <= INDEX_BYTES) {
+                journal.writeIndex(collection);
+                indexed = true;
+            }
+        }
+        journal.close();
+        if (shutdown.equals("clean")) {
+            journal.writeIndex(collection);
+        }
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public ChatsCollection loadMessages() throws IOException {
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        ChatsCollection collection = journal.replay();
+        journal.open();
+        collection.setStorage(journal, new ChatCache(16, 1 << 20));
+        journal.close();
+        return collection;
+    }
+}
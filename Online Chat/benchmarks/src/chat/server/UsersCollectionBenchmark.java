@@ -0,0 +1,55 @@
+package chat.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// name lookups done for every addressed command, and the registry snapshot written for checkpoints and standbys
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UsersCollectionBenchmark {
+    @Param({"1000", "100000"})
+    private int users;
+    private String[] names;
+    private UsersCollection collection;
+    private int next;
+
+    @Setup
+    public void fill() {
+        names = new String[users];
+        collection = new UsersCollection();
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+            collection.addUser(new User(names[i], i));
+        }
+    }
+
+    @Benchmark
+    public User getUser() {
+        next = next + 1 == users ? 0 : next + 1;
+        return collection.getUser(names[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public UsersCollection writeAndRead() throws IOException {
+        BinaryWriter writer = new BinaryWriter();
+        collection.write(writer);
+        return UsersCollection.read(new BinaryReader(writer.toByteArray()));
+    }
+}
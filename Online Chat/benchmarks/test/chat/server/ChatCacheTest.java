@@ -0,0 +1,136 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// the chat cache keeps the most recently used histories on the heap and drops the coldest ones over its budget of
+// chats or bytes; a dropped chat pages its history back in from the journal when it is read again
+public class ChatCacheTest {
+    private static final int MESSAGES = 100;
+    private final User alice = new User("alice", "password1".hashCode());
+    private final User bob = new User("bob", "password2".hashCode());
+    private final User carol = new User("carol", "password3".hashCode());
+    private final User dave = new User("dave", "password4".hashCode());
+    private Path directory;
+    private MessageJournal journal;
+
+    @After
+    public void delete() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coldestChatIsEvictedOverTheChatBudget() throws IOException {
+        ChatCache cache = new ChatCache(2, Long.MAX_VALUE);
+        ChatsCollection chats = open(cache);
+        Chat first = chats.getChat(Set.of(alice, bob));
+        Chat second = chats.getChat(Set.of(alice, carol));
+        Chat third = chats.getChat(Set.of(alice, dave));
+        List<Message> sent = fill(first);
+        fill(second);
+        assertTrue(first.isLoaded());
+        assertTrue(second.isLoaded());
+
+        //first is used again, so second is the coldest when third comes in
+        first.getMessage(0);
+        fill(third);
+        assertTrue("the chat used last stays", first.isLoaded());
+        assertFalse("the coldest chat is evicted", second.isLoaded());
+        assertTrue("the chat written last stays", third.isLoaded());
+        assertEquals(cache.describe(), 1, cache.getEvictions());
+        //its counters do not need the history
+        assertEquals(MESSAGES, second.countMessages(null));
+
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(sent.get(i), first.getMessage(i));
+        }
+    }
+
+    @Test
+    public void evictedChatReloadsTheSameHistory() throws IOException {
+        ChatCache cache = new ChatCache(1, Long.MAX_VALUE);
+        ChatsCollection chats = open(cache);
+        Chat first = chats.getChat(Set.of(alice, bob));
+        Chat second = chats.getChat(Set.of(alice, carol));
+        List<Message> sent = fill(first);
+        fill(second);
+        assertFalse(first.isLoaded());
+        long misses = cache.getMisses();
+
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals(sent.get(i), first.getMessage(i));
+        }
+        assertTrue("the history is paged in again", first.isLoaded());
+        assertFalse("which evicts the other chat", second.isLoaded());
+        assertEquals(cache.describe(), misses + 1, cache.getMisses());
+        assertEquals(cache.describe(), 2, cache.getEvictions());
+
+        //a message sent to a reloaded chat comes after the history read back
+        Message late = new Message(bob, "after the reload", 2_000_000L);
+        first.sendMessage(late);
+        assertEquals(late, first.getMessage(MESSAGES));
+        assertEquals(MESSAGES + 1, first.countMessages(null));
+    }
+
+    @Test
+    public void coldestChatIsEvictedOverTheByteBudget() throws IOException {
+        //room for about one chat of MESSAGES short messages
+        ChatCache cache = new ChatCache(16, MESSAGES * 100L);
+        ChatsCollection chats = open(cache);
+        Chat first = chats.getChat(Set.of(alice, bob));
+        Chat second = chats.getChat(Set.of(alice, carol));
+        List<Message> sent = fill(first);
+        fill(second);
+        assertFalse("the coldest chat is evicted", first.isLoaded());
+        assertTrue("the chat written last stays", second.isLoaded());
+
+        assertEquals(sent.get(MESSAGES - 1), first.getMessage(MESSAGES - 1));
+        assertTrue(first.isLoaded());
+        assertFalse(second.isLoaded());
+    }
+
+    private ChatsCollection open(ChatCache cache) throws IOException {
+        directory = Files.createTempDirectory("chat-cache");
+        UsersCollection users = new UsersCollection();
+        for (User user : List.of(alice, bob, carol, dave)) {
+            users.addUser(user);
+        }
+        journal = new MessageJournal(directory.resolve("messages.journal"), users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection chats = new ChatsCollection();
+        chats.setStorage(journal, cache);
+        return chats;
+    }
+
+    private List<Message> fill(Chat chat) {
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            Message message = new Message(i % 2 == 0 ? alice : bob, "message " + i, 1_000_000L + i);
+            chat.sendMessage(message);
+            sent.add(message);
+        }
+        return sent;
+    }
+}
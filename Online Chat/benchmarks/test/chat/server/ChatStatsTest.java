@@ -0,0 +1,136 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// the counters of a chat are kept up to date on every message and survive a restart, whether they come back from
+// the chat index, from a replay of the journal, or from the index and the messages written after it
+public class ChatStatsTest {
+    private final User alice = new User("alice", "password1".hashCode());
+    private final User bob = new User("bob", "password2".hashCode());
+    private final User carol = new User("carol", "password3".hashCode());
+    private final UsersCollection users = new UsersCollection();
+    private Path directory;
+    private Path path;
+
+    @After
+    public void delete() throws IOException {
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void countersFollowEveryMessage() {
+        Chat chat = new Chat(Set.of(alice, bob));
+        chat.sendMessage(new Message(alice, "hi", 1000));
+        chat.sendMessage(new Message(bob, "h\u00e9llo", 3000));
+        chat.sendMessage(new Message(alice, "\uD83D\uDE00", 2000));
+
+        ChatStats stats = chat.getStats();
+        assertEquals(3, stats.getMessages());
+        assertEquals(2, stats.getMessages(alice));
+        assertEquals(1, stats.getMessages(bob));
+        assertEquals(0, stats.getMessages(carol));
+        assertEquals("utf-8 bytes", 2 + 4, stats.getBytes(alice));
+        assertEquals("utf-8 bytes", 6, stats.getBytes(bob));
+        assertEquals(12, stats.getBytes());
+        assertEquals(1000, stats.getFirstTime());
+        assertEquals(3000, stats.getLastTime());
+        assertEquals(2, chat.countMessages(alice));
+        assertEquals(3, chat.countMessages(null));
+    }
+
+    @Test
+    public void countersSurviveAReplayOfTheJournal() throws IOException {
+        ChatStats sent = write(false);
+        assertFalse("no index", Files.exists(indexPath()));
+        assertStats(sent, reopen());
+    }
+
+    @Test
+    public void countersSurviveTheChatIndex() throws IOException {
+        ChatStats sent = write(true);
+        assertTrue("an index", Files.exists(indexPath()));
+        assertStats(sent, reopen());
+    }
+
+    @Test
+    public void countersOfTheIndexAndTheMessagesAfterItAddUp() throws IOException {
+        write(true);
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        ChatsCollection chats = journal.replay();
+        journal.open();
+        chats.setStorage(journal, new ChatCache(16, 1L << 20));
+        Chat chat = chats.getChat(Set.of(alice, bob));
+        chat.sendMessage(new Message(bob, "after the index", 5_000_000L));
+        ChatStats sent = new ChatStats(chat.getStats());
+        journal.close();
+
+        assertStats(sent, reopen());
+    }
+
+    private ChatStats write(boolean index) throws IOException {
+        directory = Files.createTempDirectory("chat-stats");
+        path = directory.resolve("messages.journal");
+        for (User user : List.of(alice, bob, carol)) {
+            users.addUser(user);
+        }
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection chats = new ChatsCollection();
+        chats.setStorage(journal, new ChatCache(16, 1L << 20));
+        Chat chat = chats.getChat(Set.of(alice, bob));
+        for (int i = 0; i < 150; i++) {
+            chat.sendMessage(new Message(i % 3 == 0 ? bob : alice, "message " + i + " \u00fc", 1_000_000L + i));
+        }
+        chats.getChat(Set.of(bob, carol)).sendMessage(new Message(carol, "other chat", 7));
+        journal.close();
+        if (index) {
+            journal.writeIndex(chats);
+        }
+        return new ChatStats(chat.getStats());
+    }
+
+    private ChatStats reopen() {
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        try {
+            ChatsCollection chats = journal.replay();
+            assertEquals(1, chats.getChat(Set.of(bob, carol)).countMessages(carol));
+            return chats.getChat(Set.of(alice, bob)).getStats();
+        } finally {
+            journal.close();
+        }
+    }
+
+    private Path indexPath() {
+        return path.resolveSibling(path.getFileName() + ".index");
+    }
+
+    private void assertStats(ChatStats expected, ChatStats actual) {
+        assertEquals("messages", expected.getMessages(), actual.getMessages());
+        assertEquals("bytes", expected.getBytes(), actual.getBytes());
+        assertEquals("first time", expected.getFirstTime(), actual.getFirstTime());
+        assertEquals("last time", expected.getLastTime(), actual.getLastTime());
+        for (User user : List.of(alice, bob, carol)) {
+            assertEquals(user.name() + " messages", expected.getMessages(user), actual.getMessages(user));
+            assertEquals(user.name() + " bytes", expected.getBytes(user), actual.getBytes(user));
+        }
+    }
+}
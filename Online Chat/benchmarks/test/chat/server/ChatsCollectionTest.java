@@ -0,0 +1,77 @@
+package chat.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+// many sessions opening the same chats at once, every pair of users must end up with exactly one chat
+public class ChatsCollectionTest {
+    private static final int THREADS = 16;
+    private static final int USERS = 40;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void concurrentOpeningCreatesOneChatPerPair() throws Exception {
+        User[] users = new User[USERS];
+        for (int i = 0; i < USERS; i++) {
+            users[i] = new User("user" + i, i);
+        }
+        ChatsCollection chats = new ChatsCollection();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Map<Chat, Set<User>>>> results = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            Random random = new Random(thread);
+            results.add(executor.submit(() -> {
+                List<int[]> pairs = new ArrayList<>();
+                for (int i = 0; i < USERS; i++) {
+                    for (int j = i + 1; j < USERS; j++) {
+                        pairs.add(random.nextBoolean() ? new int[]{i, j} : new int[]{j, i});
+                    }
+                }
+                Map<Chat, Set<User>> seen = new IdentityHashMap<>();
+                start.await();
+                for (int round = 0; round < ROUNDS; round++) {
+                    Collections.shuffle(pairs, random);
+                    for (int[] pair : pairs) {
+                        Set<User> members = Set.of(users[pair[0]], users[pair[1]]);
+                        seen.put(chats.getChat(members), members);
+                    }
+                }
+                return seen;
+            }));
+        }
+        start.countDown();
+        Map<Chat, Set<User>> all = new IdentityHashMap<>();
+        for (Future<Map<Chat, Set<User>>> result : results) {
+            all.putAll(result.get());
+        }
+        executor.shutdown();
+
+        int pairs = USERS * (USERS - 1) / 2;
+        assertEquals("distinct chat instances", pairs, all.size());
+        assertEquals("chats in the collection", pairs, chats.getAllChats().size());
+        for (Map.Entry<Chat, Set<User>> entry : all.entrySet()) {
+            assertSame(entry.getKey(), chats.getChat(entry.getValue()));
+            assertEquals(entry.getValue(), entry.getKey().getUsers());
+        }
+        for (User user : users) {
+            Map<User, Chat> userChats = chats.getUserChats(user);
+            assertEquals(USERS - 1, userChats.size());
+            userChats.forEach((other, chat) -> assertSame(chat, chats.getChat(Set.of(user, other))));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// users, messages and chats written in the binary formats read back the same, and the java-serialized files of the
+// earlier versions, usersdb.txt and messagedb.txt at the root of the repository, migrate into smaller ones
+public class CodecTest {
+    private static final long START_MILLIS = 10_000;
+    private final User alice = new User("alice", "password1".hashCode());
+    private final User bob = new User("bob", "password2".hashCode());
+    private final User carol = new User("carol", "password3".hashCode());
+    private Path directory;
+    private Process server;
+
+    @After
+    public void delete() throws IOException, InterruptedException {
+        if (server != null) {
+            server.destroyForcibly().waitFor();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void usersRoundTrip() throws IOException {
+        UsersCollection users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        users.addUser(carol);
+        users.grant(bob);
+        users.ban(carol);
+        BinaryWriter writer = new BinaryWriter();
+        users.write(writer);
+
+        UsersCollection read = UsersCollection.read(new BinaryReader(writer.toByteArray()));
+        assertEquals(3, read.size());
+        for (User user : List.of(alice, bob, carol)) {
+            User copy = read.getUser(user.name());
+            assertEquals(user, copy);
+            assertEquals(user.name() + " keeps its id", users.getId(user), read.getId(copy));
+            assertEquals(users.isModerator(user), read.isModerator(copy));
+            assertEquals(users.isBanned(user), read.isBanned(copy));
+        }
+    }
+
+    @Test
+    public void messagesAndChatsRoundTripThroughTheJournal() throws IOException {
+        directory = Files.createTempDirectory("chat-codec");
+        Path path = directory.resolve("messages.journal");
+        UsersCollection users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        users.addUser(carol);
+        MessageJournal journal = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection chats = new ChatsCollection();
+        chats.setStorage(journal, new ChatCache(16, 1L << 20));
+        List<Message> sent = new ArrayList<>();
+        Chat chat = chats.getChat(Set.of(alice, bob));
+        for (int i = 0; i < 100; i++) {
+            Message message = new Message(i % 2 == 0 ? alice : bob,
+                    "message " + i + " \u00fcn\u00efc\u00f6d\u00e9 \uD83D\uDE00", 1_000_000L + i);
+            chat.sendMessage(message);
+            sent.add(message);
+        }
+        chat.markRead(alice, 99);
+        chat.markRead(bob, 41);
+        chats.getChat(Set.of(bob, carol)).sendMessage(new Message(carol, "", 7));
+        journal.close();
+
+        MessageJournal reopened = new MessageJournal(path, users, DurabilityMode.OS, 5, 256);
+        ChatsCollection replayed = reopened.replay();
+        reopened.open();
+        try {
+            replayed.setStorage(reopened, new ChatCache(16, 1L << 20));
+            assertEquals(2, replayed.getAllChats().size());
+            Chat copy = replayed.getChat(Set.of(alice, bob));
+            assertEquals(Set.of(alice, bob), copy.getUsers());
+            assertEquals(sent.size(), copy.countMessages(null));
+            assertEquals(50, copy.countMessages(bob));
+            for (int i = 0; i < sent.size(); i++) {
+                assertEquals(sent.get(i), copy.getMessage(i));
+            }
+            assertEquals(99, copy.getReadIndex(alice));
+            assertEquals(41, copy.getReadIndex(bob));
+            assertEquals(new Message(carol, "", 7), replayed.getChat(Set.of(bob, carol)).getMessage(0));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void checkedInLegacyFilesMigrate() throws Exception {
+        Path root = findRepositoryRoot();
+        directory = Files.createTempDirectory("chat-codec");
+        Path legacyUsers = Files.copy(root.resolve("usersdb.txt"), directory.resolve("usersdb.txt"));
+        Path legacyMessages = Files.copy(root.resolve("messagedb.txt"), directory.resolve("messagedb.txt"));
+
+        List<String> migrated = openLegacyChat();
+        //the read index of "first" is at the 28th and last message, so the ten before it are shown again
+        assertEquals("shown on the first start: " + migrated, 10, migrated.size());
+        assertTrue(migrated.toString(), migrated.get(migrated.size() - 1).endsWith(": 10"));
+        server.destroy();
+        assertTrue("the server shuts down", server.waitFor(START_MILLIS, TimeUnit.MILLISECONDS));
+
+        long usersBytes = Files.size(directory.resolve("users.db")) + Files.size(directory.resolve("users.journal"));
+        long messagesBytes = Files.size(directory.resolve("messages.journal"));
+        assertTrue("users: %d bytes, %d in usersdb.txt".formatted(usersBytes, Files.size(legacyUsers)),
+                usersBytes < Files.size(legacyUsers));
+        assertTrue("messages: %d bytes, %d in messagedb.txt".formatted(messagesBytes, Files.size(legacyMessages)),
+                messagesBytes < Files.size(legacyMessages));
+
+        //without the legacy files everything comes from the new ones
+        Files.delete(legacyUsers);
+        Files.delete(legacyMessages);
+        assertEquals(migrated, openLegacyChat());
+    }
+
+    // the users of the checked-in files are "first" and "second", both with the password "password"
+    private List<String> openLegacyChat() throws IOException, InterruptedException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.port=" + port, "-cp", System.getProperty("java.class.path"), Server.class.getName())
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(directory.resolve("server.log").toFile()))
+                .start();
+        awaitPort(port);
+        try (Socket first = new Socket("127.0.0.1", port); Socket second = new Socket("127.0.0.1", port)) {
+            DataInputStream firstIn = new DataInputStream(new BufferedInputStream(first.getInputStream()));
+            DataOutputStream firstOut = new DataOutputStream(new BufferedOutputStream(first.getOutputStream()));
+            DataInputStream secondIn = new DataInputStream(new BufferedInputStream(second.getInputStream()));
+            DataOutputStream secondOut = new DataOutputStream(new BufferedOutputStream(second.getOutputStream()));
+            firstIn.readUTF();
+            secondIn.readUTF();
+            secondOut.writeUTF("/auth second password");
+            secondOut.flush();
+            assertTrue(secondIn.readUTF().contains("authorized"));
+            firstOut.writeUTF("/auth first password");
+            firstOut.flush();
+            assertTrue(firstIn.readUTF().contains("authorized"));
+            firstOut.writeUTF("/chat second");
+            firstOut.flush();
+            List<String> lines = new ArrayList<>();
+            first.setSoTimeout(500);
+            try {
+                while (true) {
+                    lines.add(firstIn.readUTF());
+                }
+            } catch (SocketTimeoutException e) {
+                return lines;
+            }
+        }
+    }
+
+    private static Path findRepositoryRoot() {
+        for (Path dir = Path.of("").toAbsolutePath(); dir != null; dir = dir.getParent()) {
+            if (Files.exists(dir.resolve("messagedb.txt")) && Files.exists(dir.resolve("usersdb.txt"))) {
+                return dir;
+            }
+        }
+        throw new AssertionError("usersdb.txt and messagedb.txt not found above " + Path.of("").toAbsolutePath());
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new AssertionError("nothing listens on port " + port);
+    }
+}
@@ -0,0 +1,164 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertTrue;
+
+// a primary and a standby in two processes; the primary is killed after a conversation and the standby has to take
+// over with the registered users and every message of the chat
+public class FailoverTest {
+    private static final int MESSAGES = 200;
+    private static final long FAILOVER_MILLIS = 1000;
+    private static final long START_MILLIS = 10_000;
+    private final List<Process> servers = new ArrayList<>();
+    private final List<Path> directories = new ArrayList<>();
+
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("127.0.0.1", port);
+            socket.setSoTimeout(5000);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in.readUTF();
+        }
+
+        void send(String line) throws IOException {
+            out.writeUTF(line);
+            out.flush();
+        }
+
+        String ask(String line) throws IOException {
+            send(line);
+            return in.readUTF();
+        }
+
+        // everything the server sends until it is quiet for the given time
+        List<String> drain(int quietMillis) throws IOException {
+            List<String> lines = new ArrayList<>();
+            socket.setSoTimeout(quietMillis);
+            try {
+                while (true) {
+                    lines.add(in.readUTF());
+                }
+            } catch (SocketTimeoutException e) {
+                return lines;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @After
+    public void stop() throws IOException, InterruptedException {
+        for (Process server : servers) {
+            server.destroyForcibly().waitFor();
+        }
+        for (Path directory : directories) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void standbyTakesOverWithUsersAndMessages() throws Exception {
+        int primaryPort = freePort();
+        int replicationPort = freePort();
+        int standbyPort = freePort();
+        Process primary = start(primaryPort, "-Dchat.replication.port=" + replicationPort);
+        awaitPort(primaryPort);
+        start(standbyPort, "-Dchat.replication.primary=127.0.0.1:" + replicationPort,
+                "-Dchat.replication.failover.millis=" + FAILOVER_MILLIS);
+
+        try (Client alice = new Client(primaryPort); Client bob = new Client(primaryPort)) {
+            alice.ask("/registration alice password1");
+            bob.ask("/registration bob password2");
+            alice.send("/chat bob");
+            alice.drain(200);
+            for (int i = 1; i <= MESSAGES; i++) {
+                alice.send("message " + i);
+            }
+            List<String> echoed = alice.drain(500);
+            assertTrue("messages echoed by the primary: " + echoed.size(), echoed.size() >= MESSAGES);
+        }
+        //the standby acknowledges what it applied, a second is plenty on loopback
+        Thread.sleep(1000);
+        primary.destroyForcibly().waitFor();
+
+        awaitPort(standbyPort);
+        try (Client alice = new Client(standbyPort); Client bob = new Client(standbyPort)) {
+            String auth = alice.ask("/auth alice password1");
+            assertTrue("alice logs in on the standby: " + auth, auth.contains("authorized"));
+            bob.ask("/auth bob password2");
+            bob.send("/chat alice");
+            List<String> shown = bob.drain(500);
+            assertTrue("the last message reaches the standby: " + shown,
+                    shown.stream().anyMatch(line -> line.endsWith("message " + MESSAGES)));
+        }
+    }
+
+    private Process start(int port, String... properties) throws IOException {
+        Path directory = Files.createTempDirectory("chat-failover");
+        directories.add(directory);
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dchat.port=" + port);
+        command.addAll(List.of(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Server.class.getName());
+        Process server = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        servers.add(server);
+        return server;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // a standby only opens its port once it took over
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS + FAILOVER_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new AssertionError("nothing listens on port " + port);
+    }
+}
@@ -0,0 +1,203 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// history pages are cut at the ends of the chat and at 25 messages; a page of a chat that is not on the heap is read
+// from the journal starting at the nearest checkpoint, every 64 messages, and matches the page of the loaded chat.
+// The older and newer cursor of a session walks the pages back and forth and stops at either end
+public class HistoryTest {
+    private static final int MESSAGES = 200;
+    private static final int PAGE = 25;
+    private final User alice = new User("alice", "password1".hashCode());
+    private final User bob = new User("bob", "password2".hashCode());
+    private Path directory;
+    private MessageJournal journal;
+
+    // keeps every frame a session prints
+    private static class Recording implements Outbound {
+        private final List<Frame> frames = new ArrayList<>();
+
+        @Override
+        public void printFrame(Frame frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        }
+
+        @Override
+        public OutboundQueue getQueue() {
+            return null;
+        }
+
+        List<String> take() throws IOException {
+            List<String> lines = new ArrayList<>();
+            for (Frame frame : frames) {
+                lines.add(text(frame));
+            }
+            frames.clear();
+            return lines;
+        }
+    }
+
+    @After
+    public void delete() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pagesStopAtTheEndsOfTheChat() throws IOException {
+        Chat chat = new Chat(Set.of(alice, bob));
+        fill(chat, 30);
+
+        HistoryPage first = chat.getHistoryPage(-5, 10);
+        assertEquals(1, first.first());
+        assertEquals(10, first.last());
+        assertEquals(30, first.total());
+        assertEquals("alice: message 1", text(first.frames().get(0)));
+
+        HistoryPage capped = chat.getHistoryPage(1, 100);
+        assertEquals("at most a page", PAGE, capped.frames().size());
+        assertEquals(PAGE, capped.last());
+
+        HistoryPage tail = chat.getHistoryPage(21, PAGE);
+        assertEquals(30, tail.last());
+        assertEquals(10, tail.frames().size());
+        assertEquals("bob: message 30", text(tail.frames().get(9)));
+
+        assertTrue(chat.getHistoryPage(31, PAGE).isEmpty());
+        assertTrue(chat.getHistoryPage(1, 0).isEmpty());
+        assertTrue(new Chat(Set.of(alice, bob)).getHistoryPage(1, PAGE).isEmpty());
+
+        //the legacy form counts back from the newest message
+        HistoryPage legacy = chat.getHistory(5);
+        assertEquals(26, legacy.first());
+        assertEquals(30, legacy.last());
+        assertEquals(1, chat.getHistory(100).first());
+    }
+
+    @Test
+    public void pagesAcrossCheckpointsMatchTheLoadedChat() throws IOException {
+        directory = Files.createTempDirectory("chat-history");
+        UsersCollection users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        journal = new MessageJournal(directory.resolve("messages.journal"), users, DurabilityMode.OS, 5, 256);
+        journal.open();
+        ChatsCollection chats = new ChatsCollection();
+        chats.setStorage(journal, new ChatCache(16, 1L << 20));
+        Chat chat = chats.getChat(Set.of(alice, bob));
+        fill(chat, MESSAGES);
+        assertEquals("a checkpoint every 64 messages", MESSAGES / 64, chat.getCheckpoints().length);
+
+        List<List<String>> loaded = new ArrayList<>();
+        for (int from = 1; from <= MESSAGES; from += 7) {
+            loaded.add(texts(chat.getHistoryPage(from, PAGE)));
+        }
+        assertTrue(chat.unload());
+        List<List<String>> unloaded = new ArrayList<>();
+        for (int from = 1; from <= MESSAGES; from += 7) {
+            unloaded.add(texts(chat.getHistoryPage(from, PAGE)));
+            assertFalse("a page does not page the chat in", chat.isLoaded());
+        }
+        assertEquals(loaded, unloaded);
+
+        //pages ending right on a checkpoint, and right after one
+        for (int last : new int[]{64, 65, 128, 129, 192, 193}) {
+            HistoryPage page = chat.getHistoryPage(last - PAGE + 1, PAGE);
+            assertEquals(last, page.last());
+            assertEquals((last % 2 == 0 ? "bob" : "alice") + ": message " + last,
+                    text(page.frames().get(PAGE - 1)));
+        }
+    }
+
+    @Test
+    public void olderAndNewerStopAtTheEnds() throws IOException {
+        UsersCollection users = new UsersCollection();
+        users.addUser(alice);
+        users.addUser(bob);
+        ChatsCollection chats = new ChatsCollection();
+        fill(chats.getChat(Set.of(alice, bob)), 60);
+        Server server = new Server(0, ServerMode.THREADS, users, chats);
+        new Session(new Recording(), server).handleInput("/auth bob password2");
+        Recording outbound = new Recording();
+        Session session = new Session(outbound, server);
+        session.handleInput("/auth alice password1");
+        session.handleInput("/chat bob");
+        outbound.take();
+
+        assertEquals(List.of("Server: messages 36-60 of 60"), first(history(session, outbound, "older")));
+        assertEquals(List.of("Server: messages 11-35 of 60"), first(history(session, outbound, "older")));
+        List<String> oldest = history(session, outbound, "older");
+        assertEquals("Server: messages 1-10 of 60", oldest.get(0));
+        assertEquals("alice: message 1", oldest.get(1));
+        assertEquals(11, oldest.size());
+        assertEquals(List.of("Server: no older messages"), history(session, outbound, "older"));
+        //the cursor stays at the oldest page
+        assertEquals(List.of("Server: messages 11-35 of 60"), first(history(session, outbound, "newer")));
+        List<String> newest = history(session, outbound, "newer");
+        assertEquals("Server: messages 36-60 of 60", newest.get(0));
+        assertEquals("bob: message 60", newest.get(newest.size() - 1));
+        assertEquals(List.of("Server: no newer messages"), history(session, outbound, "newer"));
+
+        //a message sent meanwhile is the next newer page
+        chats.getChat(Set.of(alice, bob)).sendMessage(new Message(bob, "late", 3_000_000L));
+        outbound.take();
+        List<String> late = history(session, outbound, "newer");
+        assertEquals(List.of("Server: messages 61-61 of 61", "bob: late"), late);
+    }
+
+    private static List<String> history(Session session, Recording outbound, String direction) throws IOException {
+        session.handleInput("/history " + direction);
+        return outbound.take();
+    }
+
+    private static List<String> first(List<String> lines) {
+        return lines.subList(0, 1);
+    }
+
+    private void fill(Chat chat, int count) {
+        for (int i = 1; i <= count; i++) {
+            chat.sendMessage(new Message(i % 2 == 0 ? bob : alice, "message " + i, 1_000_000L + i));
+        }
+    }
+
+    private static List<String> texts(HistoryPage page) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Frame frame : page.frames()) {
+            lines.add(page.first() + lines.size() + " " + text(frame));
+        }
+        return lines;
+    }
+
+    // the text of a frame as a legacy client reads it
+    private static String text(Frame frame) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(frame.encode(Protocol.V1))).readUTF();
+    }
+}
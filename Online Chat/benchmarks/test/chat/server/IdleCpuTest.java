@@ -0,0 +1,112 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertTrue;
+
+// an idle session parks its sender and receiver, so the CPU the server burns while nothing is said stays flat as
+// idle sessions pile up; a sender spinning on its empty queue would take a core for every session
+public class IdleCpuTest {
+    private static final int WAVES = 4;
+    private static final int SESSIONS_PER_WAVE = 100;
+    private static final long IDLE_MILLIS = 2000;
+    //a tenth of a core for the whole server, whatever the number of sessions
+    private static final double MAX_IDLE_CORES = 0.1;
+    private static final long START_MILLIS = 10_000;
+    private final List<Socket> sessions = new ArrayList<>();
+    private Process server;
+    private Path directory;
+
+    @After
+    public void stop() throws IOException, InterruptedException {
+        for (Socket session : sessions) {
+            session.close();
+        }
+        if (server != null) {
+            server.destroyForcibly().waitFor();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void idleCpuStaysFlatAsIdleSessionsGrow() throws Exception {
+        int port = freePort();
+        start(port);
+        awaitPort(port);
+        List<String> cores = new ArrayList<>();
+        double highest = 0;
+        for (int wave = 0; wave <= WAVES; wave++) {
+            if (wave > 0) {
+                for (int i = 0; i < SESSIONS_PER_WAVE; i++) {
+                    Socket session = new Socket("127.0.0.1", port);
+                    sessions.add(session);
+                    //the greeting shows the session runs
+                    new DataInputStream(new BufferedInputStream(session.getInputStream())).readUTF();
+                }
+            }
+            //the sessions just opened settle before the idle window
+            Thread.sleep(500);
+            Duration before = cpuTime();
+            Thread.sleep(IDLE_MILLIS);
+            double used = (double) cpuTime().minus(before).toNanos() / TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+            highest = Math.max(highest, used);
+            cores.add("%d sessions %.3f".formatted(sessions.size(), used));
+        }
+        assertTrue("cores used by the idle server: " + cores, highest <= MAX_IDLE_CORES);
+    }
+
+    private Duration cpuTime() {
+        return server.info().totalCpuDuration()
+                .orElseThrow(() -> new AssertionError("the CPU time of the server is not available"));
+    }
+
+    private void start(int port) throws IOException {
+        directory = Files.createTempDirectory("chat-idle");
+        server = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.port=" + port, "-cp", System.getProperty("java.class.path"), Server.class.getName(), "threads")
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new AssertionError("nothing listens on port " + port);
+    }
+}
@@ -0,0 +1,116 @@
+package chat.server;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// /list answers from the sorted names of the users online, a page at a time, and only the names starting with the
+// prefix it was given; /list more continues after the last name shown until no one is left
+public class PresenceTest {
+    private static final int USERS = 60;
+    //the default of chat.list.page
+    private static final int LIST_PAGE = 50;
+
+    // keeps the last reply of a session
+    private static class Recording implements Outbound {
+        private Frame last;
+
+        @Override
+        public void printFrame(Frame frame) {
+            last = frame;
+        }
+
+        @Override
+        public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        }
+
+        @Override
+        public OutboundQueue getQueue() {
+            return null;
+        }
+
+        String reply() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(last.encode(Protocol.V1))).readUTF();
+        }
+    }
+
+    @Test
+    public void listPagesThroughSortedNames() {
+        Presence presence = new Presence();
+        for (String name : List.of("dave", "bob", "carol", "alice", "erin")) {
+            presence.joinRemote(name);
+        }
+        assertEquals(List.of("alice", "bob"), presence.list("", null, 2, null));
+        assertEquals(List.of("carol", "dave"), presence.list("", "bob", 2, null));
+        assertEquals(List.of("erin"), presence.list("", "dave", 2, null));
+        assertEquals(List.of(), presence.list("", "erin", 2, null));
+        //the excluded name does not take a place on the page
+        assertEquals(List.of("alice", "carol"), presence.list("", null, 2, "bob"));
+    }
+
+    @Test
+    public void listFiltersByPrefix() {
+        Presence presence = new Presence();
+        for (String name : List.of("anna", "ann", "annie", "bob", "an", "bobby")) {
+            presence.joinRemote(name);
+        }
+        assertEquals(List.of("ann", "anna", "annie"), presence.list("ann", null, 10, null));
+        assertEquals(List.of("anna"), presence.list("ann", "ann", 1, null));
+        //a cursor before the prefix starts at the prefix
+        assertEquals(List.of("bob", "bobby"), presence.list("bob", "an", 10, null));
+        assertEquals(List.of(), presence.list("carol", null, 10, null));
+        presence.leaveRemote("anna");
+        assertEquals(List.of("ann", "annie"), presence.list("ann", null, 10, null));
+    }
+
+    @Test
+    public void listCommandPagesAndFilters() throws IOException {
+        UsersCollection users = new UsersCollection();
+        for (int i = 0; i < USERS; i++) {
+            users.addUser(new User(name(i), ("password" + i).hashCode()));
+        }
+        Server server = new Server(0, ServerMode.THREADS, users, new ChatsCollection());
+        for (int i = 1; i < USERS; i++) {
+            new Session(new Recording(), server).handleInput("/auth " + name(i) + " password" + i);
+        }
+        Recording outbound = new Recording();
+        Session session = new Session(outbound, server);
+        session.handleInput("/auth " + name(0) + " password0");
+
+        session.handleInput("/list");
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= LIST_PAGE; i++) {
+            expected.add(name(i));
+        }
+        assertEquals("Server: online: " + String.join(" ", expected) + " ... (/list more)", outbound.reply());
+        session.handleInput("/list more");
+        expected.clear();
+        for (int i = LIST_PAGE + 1; i < USERS; i++) {
+            expected.add(name(i));
+        }
+        assertEquals("Server: online: " + String.join(" ", expected), outbound.reply());
+        session.handleInput("/list more");
+        assertEquals("Server: no more users online", outbound.reply());
+
+        session.handleInput("/list user1");
+        assertEquals("Server: online: user10 user11 user12 user13 user14 user15 user16 user17 user18 user19",
+                outbound.reply());
+        session.handleInput("/list nobody");
+        assertEquals("Server: no one online", outbound.reply());
+        session.handleInput("/list user0");
+        assertTrue("the user itself is not listed: " + outbound.reply(), outbound.reply().contains("user01 "));
+        assertFalse(outbound.reply(), outbound.reply().contains("user00"));
+    }
+
+    private static String name(int i) {
+        return "user%02d".formatted(i);
+    }
+}
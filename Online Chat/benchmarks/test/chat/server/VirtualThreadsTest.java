@@ -0,0 +1,145 @@
+package chat.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// virtual mode runs every session on virtual threads, so the platform threads of the server stay flat while idle
+// sessions pile up; on a runtime without virtual threads the mode refuses to start
+public class VirtualThreadsTest {
+    private static final int WAVES = 4;
+    private static final int SESSIONS_PER_WAVE = 250;
+    //carrier threads that start on demand, the journal writer, timers
+    private static final int THREAD_SLACK = 16;
+    private static final long START_MILLIS = 10_000;
+    private final List<Socket> sessions = new ArrayList<>();
+    private Process server;
+    private Path directory;
+
+    @After
+    public void stop() throws IOException, InterruptedException {
+        for (Socket session : sessions) {
+            session.close();
+        }
+        if (server != null) {
+            server.destroyForcibly().waitFor();
+        }
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void virtualModeRefusesToStartWithoutVirtualThreads() throws Exception {
+        assumeTrue("this runtime has virtual threads", !hasVirtualThreads());
+        start(freePort());
+        assertTrue("the server exits", server.waitFor(START_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue("exit code " + server.exitValue(), server.exitValue() != 0);
+        String log = Files.readString(directory.resolve("server.log"));
+        assertTrue("the reason is logged: " + log, log.contains("virtual mode needs virtual threads"));
+    }
+
+    @Test
+    public void platformThreadsStayFlatAsSessionsGrow() throws Exception {
+        assumeTrue("this runtime has no virtual threads", hasVirtualThreads());
+        int port = freePort();
+        int jmxPort = freePort();
+        start(port, "-Dcom.sun.management.jmxremote.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-Djava.rmi.server.hostname=127.0.0.1");
+        awaitPort(port);
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + jmxPort + "/jmxrmi");
+        try (JMXConnector connector = JMXConnectorFactory.connect(url)) {
+            MBeanServerConnection connection = connector.getMBeanServerConnection();
+            ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(connection,
+                    ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+            List<Integer> counts = new ArrayList<>();
+            for (int wave = 0; wave < WAVES; wave++) {
+                for (int i = 0; i < SESSIONS_PER_WAVE; i++) {
+                    Socket session = new Socket("127.0.0.1", port);
+                    sessions.add(session);
+                    //the greeting shows the session runs
+                    new DataInputStream(new BufferedInputStream(session.getInputStream())).readUTF();
+                }
+                counts.add(threads.getThreadCount());
+            }
+            int growth = counts.get(counts.size() - 1) - counts.get(0);
+            assertTrue("platform threads after every " + SESSIONS_PER_WAVE + " sessions: " + counts,
+                    growth <= THREAD_SLACK);
+            assertEquals("sessions", WAVES * SESSIONS_PER_WAVE, sessions.size());
+        }
+    }
+
+    private void start(int port, String... properties) throws IOException {
+        directory = Files.createTempDirectory("chat-virtual");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dchat.port=" + port);
+        command.addAll(List.of(properties));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Server.class.getName());
+        command.add("virtual");
+        server = new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitPort(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(START_MILLIS);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new AssertionError("nothing listens on port " + port);
+    }
+}
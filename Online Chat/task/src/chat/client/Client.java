@@ -1,5 +1,8 @@
 package chat.client;
 
+import chat.server.Compression;
+import chat.server.Protocol;
+
 import java.io.*;
 import java.net.Socket;
 import java.util.concurrent.*;
@@ -8,9 +11,12 @@ import java.util.logging.Logger;
 
 public class Client {
     private static final int CONNECTION_TIMEOUT = 1000;
+    //what a server without /protocol answers to it
+    private static final String LEGACY_REPLY = "Server: incorrect command!";
     private final Logger logger = Logger.getGlobal();
     private final String address;
     private final int port;
+    private Compression compression = Compression.NONE;
 
     public Client(String address, int port) {
         this.address = address;
@@ -18,7 +24,7 @@ public class Client {
     }
 
     public static void main(String[] args) throws InterruptedException {
-        new Client("127.0.0.1", 5578).run();
+        new Client("127.0.0.1", Integer.getInteger("chat.port", 5578)).run();
     }
 
     private synchronized void run() throws InterruptedException {
@@ -35,8 +41,9 @@ public class Client {
             }
             wait(CONNECTION_TIMEOUT);
         }
-        Receiver receiver = new Receiver(socket);
-        Sender sender = new Sender(socket);
+        Protocol protocol = negotiate(socket);
+        Receiver receiver = new Receiver(socket, protocol, compression);
+        Sender sender = new Sender(socket, protocol);
         executorService.execute(receiver);
         executorService.execute(sender);
         executorService.shutdown();
@@ -46,6 +53,37 @@ public class Client {
         logger.info("client: stop");
     }
 
+    // v2 is asked for with -Dchat.protocol=v2; frames that arrive before the answer are printed as usual, the socket
+    // streams are unbuffered
+    private Protocol negotiate(Socket socket) {
+        Protocol protocol = Protocol.of(System.getProperty("chat.protocol", Protocol.V1.toString()));
+        if (protocol == Protocol.V1) {
+            return protocol;
+        }
+        Compression requested = Compression.of(System.getProperty("chat.compression", Compression.NONE.toString()));
+        try {
+            DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream());
+            DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+            dataOutputStream.writeUTF(requested == Compression.NONE ? "/protocol " + protocol
+                    : "/protocol " + protocol + " " + requested);
+            while (true) {
+                String reply = dataInputStream.readUTF();
+                if (reply.equals(protocol.getAcknowledgement(requested))) {
+                    logger.log(Level.INFO, "protocol: {0}, compression: {1}", new Object[]{protocol, requested});
+                    compression = requested;
+                    return protocol;
+                }
+                if (reply.equals(LEGACY_REPLY)) {
+                    return Protocol.V1;
+                }
+                System.out.println(reply);
+            }
+        } catch (IOException e) {
+            logger.warning("protocol negotiation error: " + e.getMessage());
+            return Protocol.V1;
+        }
+    }
+
     private Socket getSocket() {
         try {
             return new Socket(address, port);
@@ -1,16 +1,30 @@
 package chat.client;
 
+import chat.server.Compression;
+import chat.server.FrameAssembler;
+import chat.server.FrameType;
+import chat.server.Frames;
+import chat.server.Protocol;
+
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Receiver implements Runnable {
     private final Logger logger = Logger.getGlobal();
     private final Socket socket;
+    private final Protocol protocol;
+    private final FrameAssembler assembler = FrameAssembler.fromProperties();
 
-    public Receiver(Socket socket) {
+    public Receiver(Socket socket, Protocol protocol, Compression compression) {
         this.socket = socket;
+        this.protocol = protocol;
+        if (compression == Compression.DEFLATE) {
+            assembler.enableInflation();
+        }
     }
 
     @Override
@@ -18,12 +32,28 @@ public class Receiver implements Runnable {
         logger.info("receiver: start");
         try (DataInputStream dataInputStream = new DataInputStream(socket.getInputStream())) {
             while (!Thread.currentThread().isInterrupted()) {
-                String message = dataInputStream.readUTF();
-                System.out.println(message);
+                if (protocol == Protocol.V1) {
+                    System.out.println(dataInputStream.readUTF());
+                } else {
+                    readFrame(dataInputStream);
+                }
             }
         } catch (IOException e) {
             logger.warning("IO exception: " + e.getMessage());
         }
         logger.info("receiver: stop");
     }
+
+    private void readFrame(DataInputStream dataInputStream) throws IOException {
+        byte[] body = new byte[Frames.readLength(dataInputStream)];
+        dataInputStream.readFully(body);
+        if (!assembler.add(ByteBuffer.wrap(body), body.length)) {
+            return;
+        }
+        if (assembler.getType() == FrameType.REPLY) {
+            logger.log(Level.FINE, "reply to request {0}", assembler.getId());
+        }
+        String message = assembler.takeText();
+        System.out.println(message == null ? "Client: a message was too long and skipped" : message);
+    }
 }
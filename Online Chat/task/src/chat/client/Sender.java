@@ -1,5 +1,9 @@
 package chat.client;
 
+import chat.server.FrameType;
+import chat.server.Frames;
+import chat.server.Protocol;
+
 import java.io.*;
 import java.net.Socket;
 import java.util.Scanner;
@@ -8,9 +12,12 @@ import java.util.logging.Logger;
 public class Sender implements Runnable {
     private final Logger logger = Logger.getGlobal();
     private final Socket socket;
+    private final Protocol protocol;
+    private long lastRequestId;
 
-    public Sender(Socket socket) {
+    public Sender(Socket socket, Protocol protocol) {
         this.socket = socket;
+        this.protocol = protocol;
     }
 
     @Override
@@ -23,7 +30,7 @@ public class Sender implements Runnable {
                     if (message.isEmpty()) {
                         continue;
                     }
-                    dataOutputStream.writeUTF(message);
+                    send(dataOutputStream, message);
                     if (message.trim().equalsIgnoreCase("/exit")) {
                         socket.close();
                         Thread.currentThread().interrupt();
@@ -34,4 +41,14 @@ public class Sender implements Runnable {
             }
         logger.info("sender: stop");
     }
+
+    // v2 requests are pipelined, every line gets its own id and nothing waits for the reply
+    private void send(DataOutputStream dataOutputStream, String message) throws IOException {
+        if (protocol == Protocol.V1) {
+            dataOutputStream.writeUTF(message);
+            return;
+        }
+        FrameType type = message.trim().startsWith("/") ? FrameType.COMMAND : FrameType.CHAT;
+        dataOutputStream.write(Frames.encodeChunked(type, ++lastRequestId, message));
+    }
 }
@@ -0,0 +1,138 @@
+package chat.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public class BinaryReader implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private final InputStream input;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    public BinaryReader(InputStream input) {
+        this.input = input;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    public BinaryReader(byte[] bytes) {
+        this.input = null;
+        this.buffer = bytes;
+        this.limit = bytes.length;
+    }
+
+    public int readHeader() throws IOException {
+        int magic = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            magic = (magic << 8) | readByte();
+        }
+        if (magic != BinaryWriter.MAGIC) {
+            throw new StreamCorruptedException("unknown file format");
+        }
+        return readVarInt();
+    }
+
+    public int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value >>> Integer.SIZE != 0) {
+            throw new StreamCorruptedException("varint overflow");
+        }
+        return (int) value;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int next = readByte();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("varint too long");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // bytes that can be read without blocking
+    public int available() throws IOException {
+        return limit - position + (input == null ? 0 : input.available());
+    }
+
+    public byte[] readBytes() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        readFully(bytes);
+        return bytes;
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (limit - position >= length) {
+            String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readFully(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int count = Math.min(bytes.length - offset, limit - position);
+            System.arraycopy(buffer, position, bytes, offset, count);
+            position += count;
+            offset += count;
+        }
+    }
+
+    public void skip(long count) throws IOException {
+        long buffered = Math.min(count, limit - position);
+        position += (int) buffered;
+        long remaining = count - buffered;
+        while (remaining > 0) {
+            if (input == null) {
+                throw new EOFException();
+            }
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (input == null) {
+            return false;
+        }
+        int count = input.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+        }
+    }
+}
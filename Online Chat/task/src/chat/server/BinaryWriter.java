@@ -0,0 +1,114 @@
+package chat.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BinaryWriter implements Closeable, Flushable {
+    public static final int MAGIC = 0x4F434442;
+    private static final int BUFFER_SIZE = 8192;
+    private final OutputStream output;
+    private byte[] buffer;
+    private int position;
+
+    public BinaryWriter(OutputStream output) {
+        this.output = output;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    // collects everything in memory, see toByteArray
+    public BinaryWriter() {
+        this.output = null;
+        this.buffer = new byte[64];
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        long remaining = Integer.toUnsignedLong(value);
+        while ((remaining & ~0x7FL) != 0) {
+            remaining >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public void writeHeader(int version) throws IOException {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            writeByte(MAGIC >>> shift);
+        }
+        writeVarInt(version);
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeVarInt(int value) throws IOException {
+        writeVarLong(Integer.toUnsignedLong(value));
+    }
+
+    public void writeVarLong(long value) throws IOException {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeVarInt(bytes.length);
+        if (output != null && bytes.length > buffer.length) {
+            flush();
+            output.write(bytes);
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    public void writeString(String string) throws IOException {
+        writeBytes(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int count) throws IOException {
+        if (buffer.length - position >= count) {
+            return;
+        }
+        if (output != null) {
+            flush();
+        }
+        if (buffer.length - position < count) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + count));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (output == null) {
+            return;
+        }
+        output.write(buffer, 0, position);
+        position = 0;
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output == null) {
+            return;
+        }
+        flush();
+        output.close();
+    }
+}
@@ -3,70 +3,546 @@ package chat.server;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Chat implements Serializable {
     @Serial
     private static final long serialVersionUID = 12L;
-    private final List<Message> messages = new ArrayList<>();
+    private static final int MESSAGE_OVERHEAD = 64;
+    private static final int PAGE_SIZE = 25;
+    private static final String NEW_PREFIX = "(new) ";
+    private static final int PAGE_CACHE = Integer.getInteger("chat.history.pages", 8);
+    private static final int CHECKPOINT_INTERVAL = 64;
+    private static final int PAGE_IN_ROUNDS = 3;
+    private static final long READ_SAVE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.read.save.millis", 1000));
+    //null while the history is not paged in from the journal
+    private List<Message> messages = new ArrayList<>();
 
-    private final Map<User, Integer> lastReadIndex = new HashMap<>(2);
+    //only filled when a legacy java-serialized chat is read, see readResolve
+    private Map<User, Integer> lastReadIndex;
+    private transient User[] members;
+    private transient Set<User> users;
+    private transient int[] readMarkers;
+    //the read markers as last written to the journal and when
+    private transient int[] savedReadMarkers;
+    private transient long[] readSavedNanos;
+    private transient UnreadIndex unreadIndex;
+    private transient ChatStats stats = new ChatStats();
+    private transient long lastOffset = -1;
+    private transient long estimatedBytes;
+    private transient Lock lock = new ReentrantLock();
+    private transient ChatKey key;
+    private transient MessageJournal journal;
+    private transient ChatCache cache;
+    private transient Map<Long, HistoryPage> pages;
+    //journal offsets of every CHECKPOINT_INTERVAL-th message, they bound the walk to a deep page
+    private transient long[] checkpoints = new long[0];
+    private transient int checkpointCount;
 
     public Chat(Set<User> users) {
-        users.forEach(user -> lastReadIndex.put(user, -1));
+        members = users.toArray(new User[0]);
+        this.users = Set.of(members);
+        readMarkers = new int[members.length];
+        Arrays.fill(readMarkers, -1);
+        savedReadMarkers = readMarkers.clone();
+        readSavedNanos = new long[members.length];
     }
 
     public int countMessages(User user) {
-        if (user == null) {
-            return messages.size();
+        lock.lock();
+        try {
+            return user == null ? stats.getMessages() : stats.getMessages(user);
+        } finally {
+            lock.unlock();
         }
-        return (int) messages.stream().filter(message -> message.author() == user).count();
     }
+
+    public ChatStats getStats() {
+        lock.lock();
+        try {
+            return new ChatStats(stats);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public Set<User> getUsers() {
-        return lastReadIndex.keySet();
+        return users;
+    }
+
+    public ChatKey getKey() {
+        if (key == null) {
+            key = ChatKey.of(getUsers());
+        }
+        return key;
+    }
+
+    void attach(MessageJournal journal, ChatCache cache) {
+        this.journal = journal;
+        this.cache = cache;
+    }
+
+    void trackUnread(UnreadIndex unreadIndex) {
+        lock.lock();
+        try {
+            this.unreadIndex = unreadIndex;
+            refreshUnread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // returns the 1-based id of the message in this chat
+    public int sendMessage(Message message) {
+        lock.lock();
+        try {
+            int previousCount = stats.getMessages();
+            stats.add(message);
+            for (int i = 0; i < members.length; i++) {
+                if (previousCount - 1 <= readMarkers[i]) {
+                    unreadChanged(i);
+                }
+            }
+            if (journal != null) {
+                long offset = journal.appendMessage(this, message, lastOffset);
+                lastOffset = offset < 0 ? lastOffset : offset;
+                trackOffset(stats.getMessages(), offset);
+            }
+            if (messages != null) {
+                messages.add(message);
+                estimatedBytes += estimateBytes(message);
+                if (cache != null) {
+                    cache.update(this, estimatedBytes);
+                }
+            }
+            return stats.getMessages();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // recovery from the journal: counts a stored message without keeping its body on the heap; an index written
+    // while the server ran may already hold messages past the length it covers, those are not counted twice
+    void restoreMessage(long offset, User author, int bytes, long time) {
+        lock.lock();
+        try {
+            if (offset <= lastOffset) {
+                return;
+            }
+            messages = null;
+            stats.add(author, bytes, time);
+            refreshUnread();
+            lastOffset = offset;
+            trackOffset(stats.getMessages(), offset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void restore(ChatStats stats, long lastOffset, long[] checkpoints) {
+        lock.lock();
+        try {
+            this.messages = null;
+            this.stats = stats;
+            this.lastOffset = lastOffset;
+            this.checkpoints = checkpoints;
+            this.checkpointCount = checkpoints.length;
+            refreshUnread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastOffset() {
+        return lastOffset;
     }
 
-    public void sendMessage(Message message) {
-        messages.add(message);
+    // the summary kept in the chat index, taken at once so the stats always match the last offset
+    ChatIndex.Entry indexEntry() {
+        lock.lock();
+        try {
+            return new ChatIndex.Entry(List.of(members), new ChatStats(stats), lastOffset,
+                    Arrays.copyOf(checkpoints, checkpointCount), readMarkers.clone());
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public Message readMessage(User user) {
-        lastReadIndex.put(user, messages.size() - 1);
-        return messages.get(lastReadIndex.get(user));
+    public long[] getCheckpoints() {
+        lock.lock();
+        try {
+            return Arrays.copyOf(checkpoints, checkpointCount);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public List<String> getLastMessages(User user) {
-        List<String> lastMessages = new ArrayList<>();
-        int start = 0;
-        start = Math.max(start, messages.size() - 25);
-        start = Math.max(start, lastReadIndex.get(user) - 9);
+    private void trackOffset(int id, long offset) {
+        if (offset < 0 || id % CHECKPOINT_INTERVAL != 0 || checkpointCount != id / CHECKPOINT_INTERVAL - 1) {
+            return;
+        }
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, Math.max(4, checkpointCount * 2));
+        }
+        checkpoints[checkpointCount++] = offset;
+    }
+
+    public boolean isLoaded() {
+        return messages != null;
+    }
+
+    public Message getMessage(int index) {
+        pageIn();
+        lock.lock();
+        try {
+            ensureLoaded();
+            return messages.get(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getReadIndex(User user) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            return member < 0 ? -1 : readMarkers[member];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int countUnread(User user) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            return member < 0 ? 0 : Math.max(0, stats.getMessages() - 1 - readMarkers[member]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int memberIndex(User user) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i].equals(user)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isUnread(int member) {
+        return stats.getMessages() - 1 > readMarkers[member];
+    }
+
+    private void unreadChanged(int member) {
+        if (unreadIndex != null) {
+            unreadIndex.update(members[member], this, isUnread(member));
+        }
+    }
+
+    private void refreshUnread() {
+        for (int i = 0; i < members.length; i++) {
+            unreadChanged(i);
+        }
+    }
+
+    void markRead(User user, int index) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            if (member >= 0) {
+                updateReadMarker(member, index);
+                if (readMarkers[member] != savedReadMarkers[member]) {
+                    saveRead(member, System.nanoTime());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // a read marker that is already in the journal, replayed or replicated from a primary
+    void restoreRead(User user, int index) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            if (member >= 0) {
+                updateReadMarker(member, index);
+                savedReadMarkers[member] = index;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        for (int i = start; i < messages.size(); i++) {
-            Message message = messages.get(i);
-            if (i > this.lastReadIndex.get(user)) {
-                lastMessages.add("(new) " + message.toString());
+    // the message with the given 1-based id was shown to the user in the open chat; the marker only moves forward,
+    // a later message sent meanwhile stays unread until it is delivered too. It is kept in memory and written to the
+    // journal at most every READ_SAVE_NANOS, saveRead writes the rest when the user leaves the chat
+    void markDelivered(User user, int id) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            if (member < 0 || id - 1 <= readMarkers[member]) {
+                return;
+            }
+            updateReadMarker(member, id - 1);
+            long now = System.nanoTime();
+            if (now - readSavedNanos[member] >= READ_SAVE_NANOS) {
+                saveRead(member, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // writes a read marker that so far is only in memory to the journal
+    void saveRead(User user) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            if (member >= 0 && readMarkers[member] != savedReadMarkers[member]) {
+                saveRead(member, System.nanoTime());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void saveRead(int member, long now) {
+        savedReadMarkers[member] = readMarkers[member];
+        readSavedNanos[member] = now;
+        if (journal != null) {
+            journal.appendRead(this, members[member], readMarkers[member]);
+        }
+    }
+
+    private void updateReadMarker(int member, int index) {
+        if (readMarkers[member] == index) {
+            return;
+        }
+        boolean wasUnread = isUnread(member);
+        readMarkers[member] = index;
+        if (wasUnread != isUnread(member)) {
+            unreadChanged(member);
+        }
+    }
+
+    public List<Frame> getLastMessages(User user) {
+        pageIn();
+        lock.lock();
+        try {
+            ensureLoaded();
+            List<Frame> lastMessages = new ArrayList<>();
+            int start = 0;
+            start = Math.max(start, messages.size() - 25);
+            int readIndex = getReadIndex(user);
+            start = Math.max(start, readIndex - 9);
+
+            for (int i = start; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                lastMessages.add(message.toFrame(i > readIndex ? NEW_PREFIX : "", i + 1));
+            }
+            markRead(user, messages.size() - 1);
+            return lastMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // legacy form: a page starting index messages back from the newest one
+    public HistoryPage getHistory(int index) {
+        return getHistoryPage(Math.max(1, countMessages(null) - index + 1), PAGE_SIZE);
+    }
+
+    // an unloaded chat is not paged in for browsing, only the requested slice is read from the journal, without the
+    // lock: the messages of a written page never change and the ones sent meanwhile come after it
+    public HistoryPage getHistoryPage(int from, int count) {
+        int first;
+        int last;
+        long offset;
+        int skip;
+        lock.lock();
+        try {
+            int total = stats.getMessages();
+            first = Math.max(1, from);
+            last = Math.min(total, first + Math.min(count, PAGE_SIZE) - 1);
+            if (first > last) {
+                return new HistoryPage(first, last, total, List.of());
+            }
+            HistoryPage page = cachedPage(first, last, total);
+            if (page != null) {
+                return page;
+            }
+            if (messages != null || journal == null) {
+                List<Message> slice = messages == null ? List.of() : messages.subList(first - 1, last);
+                return cachePage(new HistoryPage(first, last, total, renderPage(first, slice)));
+            }
+            int checkpoint = (last + CHECKPOINT_INTERVAL - 1) / CHECKPOINT_INTERVAL;
+            if (checkpoint <= checkpointCount) {
+                offset = checkpoints[checkpoint - 1];
+                skip = checkpoint * CHECKPOINT_INTERVAL - last;
             } else {
-                lastMessages.add(message.toString());
+                offset = lastOffset;
+                skip = total - last;
             }
+        } finally {
+            lock.unlock();
+        }
+        List<Message> slice = journal.readMessages(offset, skip, last - first + 1);
+        lock.lock();
+        try {
+            return cachePage(new HistoryPage(first, last, stats.getMessages(), renderPage(first, slice)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //a page that is fully written never changes, so it is rendered once
+    private HistoryPage cachedPage(int first, int last, int total) {
+        HistoryPage page = pages == null ? null : pages.get((long) first << 32 | last);
+        if (page == null) {
+            return null;
+        }
+        return page.total() == total ? page : new HistoryPage(first, last, total, page.frames());
+    }
+
+    private HistoryPage cachePage(HistoryPage page) {
+        if (pages == null) {
+            pages = new LinkedHashMap<>(PAGE_CACHE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, HistoryPage> eldest) {
+                    return size() > PAGE_CACHE;
+                }
+            };
         }
-        this.lastReadIndex.put(user, messages.size() - 1);
-        return lastMessages;
+        pages.put((long) page.first() << 32 | page.last(), page);
+        return page;
     }
 
-    public List<String> getHistory(int index) {
-        int start = 0;
-        start = Math.max(start, messages.size() - index);
-        int end = start + 25;
-        end = Math.min(end, messages.size() - 1);
-        List<Message> messageList = messages.subList(start, end);
-        return messageList.stream()
-                .map(Message::toString)
-                .toList();
+    private static List<Frame> renderPage(int first, List<Message> slice) {
+        List<Frame> frames = new ArrayList<>(slice.size());
+        for (int i = 0; i < slice.size(); i++) {
+            frames.add(slice.get(i).toFrame("", first + i));
+        }
+        return List.copyOf(frames);
     }
 
     public boolean haveUnreadMessages(User user) {
-        if (!lastReadIndex.containsKey(user)) {
+        lock.lock();
+        try {
+            int member = memberIndex(user);
+            return member >= 0 && isUnread(member);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // rewrites the whole chat into a fresh journal, used when migrating older formats
+    void writeTo(MessageJournal journal) {
+        lock.lock();
+        try {
+            ensureLoaded();
+            lastOffset = -1;
+            checkpointCount = 0;
+            for (int i = 0; i < messages.size(); i++) {
+                lastOffset = journal.appendMessage(this, messages.get(i), lastOffset);
+                trackOffset(i + 1, lastOffset);
+            }
+            for (int i = 0; i < members.length; i++) {
+                journal.appendRead(this, members[i], readMarkers[i]);
+                savedReadMarkers[i] = readMarkers[i];
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // drops the history from the heap, returns false if the chat is in use or not persisted
+    boolean unload() {
+        if (journal == null || !lock.tryLock()) {
             return false;
         }
-        return messages.size() - 1 > lastReadIndex.get(user);
+        try {
+            messages = null;
+            pages = null;
+            estimatedBytes = 0;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // reads the history before the lock is taken, so senders to this chat do not wait for the disk or for the journal
+    // writer; what is sent meanwhile is read in another round. A chat that keeps changing, or a failed read, is left
+    // to ensureLoaded under the lock
+    private void pageIn() {
+        List<Message> loaded = null;
+        long loadedOffset = -1;
+        int loadedCount = 0;
+        for (int round = 0; round <= PAGE_IN_ROUNDS; round++) {
+            long offset;
+            int count;
+            lock.lock();
+            try {
+                if (messages != null || journal == null) {
+                    return;
+                }
+                if (loaded != null && lastOffset == loadedOffset) {
+                    install(loaded);
+                    return;
+                }
+                offset = lastOffset;
+                count = stats.getMessages();
+            } finally {
+                lock.unlock();
+            }
+            List<Message> newer = journal.readMessages(offset, 0, count - loadedCount);
+            if (newer.size() != count - loadedCount) {
+                return;
+            }
+            if (loaded == null) {
+                loaded = newer;
+            } else {
+                loaded.addAll(newer);
+            }
+            loadedOffset = offset;
+            loadedCount = count;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (messages != null) {
+            if (cache != null) {
+                cache.hit(this);
+            }
+            return;
+        }
+        install(journal == null ? new ArrayList<>() : journal.readMessages(lastOffset));
+    }
+
+    private void install(List<Message> loaded) {
+        messages = loaded;
+        estimatedBytes = messages.stream().mapToLong(Chat::estimateBytes).sum();
+        if (cache != null) {
+            cache.miss();
+            cache.update(this, estimatedBytes);
+        }
+    }
+
+    private static long estimateBytes(Message message) {
+        return MESSAGE_OVERHEAD + message.text().length();
+    }
+
+    // legacy java-serialized chats carry none of the transient state
+    @Serial
+    private Object readResolve() {
+        Chat chat = new Chat(lastReadIndex.keySet());
+        chat.messages.addAll(messages);
+        messages.forEach(chat.stats::add);
+        lastReadIndex.forEach(chat::markRead);
+        return chat;
     }
 }
@@ -0,0 +1,102 @@
+package chat.server;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ChatCache {
+    private final Map<Chat, Long> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private final Lock lock = new ReentrantLock();
+    private final int maxChats;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    public ChatCache(int maxChats, long maxBytes) {
+        this.maxChats = maxChats;
+        this.maxBytes = maxBytes;
+    }
+
+    public static ChatCache fromProperties() {
+        return new ChatCache(Integer.getInteger("chat.cache.chats", 10_000),
+                Long.getLong("chat.cache.bytes", 64L << 20));
+    }
+
+    void hit(Chat chat) {
+        hits.increment();
+        lock.lock();
+        try {
+            loaded.get(chat);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    // records the current heap estimate of a loaded chat and evicts the coldest ones over budget
+    void update(Chat chat, long chatBytes) {
+        Map<Chat, Long> victims = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            Long previous = loaded.put(chat, chatBytes);
+            bytes += chatBytes - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<Chat, Long>> iterator = loaded.entrySet().iterator();
+            while ((loaded.size() > maxChats || bytes > maxBytes) && iterator.hasNext()) {
+                Map.Entry<Chat, Long> entry = iterator.next();
+                if (entry.getKey() == chat) {
+                    continue;
+                }
+                iterator.remove();
+                bytes -= entry.getValue();
+                victims.put(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            lock.unlock();
+        }
+        victims.forEach(this::evict);
+    }
+
+    private void evict(Chat chat, long chatBytes) {
+        if (chat.unload()) {
+            evictions.increment();
+            return;
+        }
+        //the chat is busy right now, so it is hot anyway
+        lock.lock();
+        try {
+            if (loaded.putIfAbsent(chat, chatBytes) == null) {
+                bytes += chatBytes;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            return "chats loaded %d (max %d), bytes %d (max %d), hits %d, misses %d, evictions %d"
+                    .formatted(loaded.size(), maxChats, bytes, maxBytes, getHits(), getMisses(), getEvictions());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ChatIndex {
+    private static final int FORMAT_VERSION = 3;
+    private final Logger logger = Logger.getGlobal();
+    private final Path path;
+    private final UsersCollection users;
+
+    // read indexes are in the order of the users
+    public record Entry(List<User> users, ChatStats stats, long lastOffset, long[] checkpoints, int[] readIndexes) {
+    }
+
+    public ChatIndex(Path path, UsersCollection users) {
+        this.path = path;
+        this.users = users;
+    }
+
+    // restores chat summaries and returns the journal length they cover, or -1 without a usable index
+    public long read(ChatsCollection chats, long journalLength) {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (BinaryReader reader = new BinaryReader(Files.newInputStream(path))) {
+            int version = reader.readHeader();
+            long coveredLength = reader.readVarLong();
+            if (version != FORMAT_VERSION || coveredLength > journalLength) {
+                logger.warning("chat index does not match the journal, ignoring it");
+                return -1;
+            }
+            int count = reader.readVarInt();
+            for (int i = 0; i < count; i++) {
+                int userCount = reader.readVarInt();
+                User[] chatUsers = new User[userCount];
+                for (int j = 0; j < userCount; j++) {
+                    chatUsers[j] = users.getUser(reader.readVarInt());
+                    if (chatUsers[j] == null) {
+                        throw new IOException("unknown user in chat index");
+                    }
+                }
+                ChatStats stats = ChatStats.read(reader, users);
+                long lastOffset = reader.readVarLong() - 1;
+                long[] checkpoints = new long[reader.readVarInt()];
+                for (int j = 0; j < checkpoints.length; j++) {
+                    checkpoints[j] = (j == 0 ? 0 : checkpoints[j - 1]) + reader.readVarLong();
+                }
+                Chat chat = chats.getChat(new HashSet<>(List.of(chatUsers)));
+                chat.restore(stats, lastOffset, checkpoints);
+                for (User user : chatUsers) {
+                    chat.restoreRead(user, reader.readVarInt() - 1);
+                }
+            }
+            logger.log(Level.INFO, "chat index loaded, chats: {0}", count);
+            return coveredLength;
+        } catch (IOException e) {
+            logger.warning("error chat index loading: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    public void write(List<Entry> entries, long journalLength) {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BinaryWriter writer = new BinaryWriter(Files.newOutputStream(temporaryPath))) {
+            writer.writeHeader(FORMAT_VERSION);
+            writer.writeVarLong(journalLength);
+            writer.writeVarInt(entries.size());
+            for (Entry entry : entries) {
+                writer.writeVarInt(entry.users().size());
+                for (User user : entry.users()) {
+                    writer.writeVarInt(users.getId(user));
+                }
+                entry.stats().write(writer, users);
+                writer.writeVarLong(entry.lastOffset() + 1);
+                long[] checkpoints = entry.checkpoints();
+                writer.writeVarInt(checkpoints.length);
+                for (int j = 0; j < checkpoints.length; j++) {
+                    writer.writeVarLong(checkpoints[j] - (j == 0 ? 0 : checkpoints[j - 1]));
+                }
+                for (int readIndex : entry.readIndexes()) {
+                    writer.writeVarInt(readIndex + 1);
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("error chat index writing: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("error chat index writing: " + e.getMessage());
+        }
+        logger.log(Level.INFO, "chat index saved, chats: {0}", entries.size());
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warning("error chat index deleting: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package chat.server;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+public record ChatKey(List<String> names) {
+    public static ChatKey of(Collection<User> users) {
+        if (users.size() == 2) {
+            Iterator<User> iterator = users.iterator();
+            String first = iterator.next().name();
+            String second = iterator.next().name();
+            return new ChatKey(first.compareTo(second) <= 0 ? List.of(first, second) : List.of(second, first));
+        }
+        return new ChatKey(users.stream()
+                .map(User::name)
+                .sorted()
+                .toList());
+    }
+}
@@ -0,0 +1,119 @@
+package chat.server;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// running aggregates of a chat, kept up to date on every message so /stats never walks the history
+public class ChatStats {
+    private static final int COUNT = 0;
+    private static final int BYTES = 1;
+    private final Map<User, long[]> authors = new HashMap<>(2);
+    private int messages;
+    private long bytes;
+    private long firstTime;
+    private long lastTime;
+
+    public ChatStats() {
+    }
+
+    public ChatStats(ChatStats stats) {
+        stats.authors.forEach((user, counters) -> authors.put(user, counters.clone()));
+        messages = stats.messages;
+        bytes = stats.bytes;
+        firstTime = stats.firstTime;
+        lastTime = stats.lastTime;
+    }
+
+    public void add(Message message) {
+        add(message.author(), utf8Length(message.text()), message.time());
+    }
+
+    public void add(User author, int messageBytes, long time) {
+        long[] counters = authors.computeIfAbsent(author, user -> new long[2]);
+        counters[COUNT]++;
+        counters[BYTES] += messageBytes;
+        messages++;
+        bytes += messageBytes;
+        if (time > 0) {
+            firstTime = firstTime == 0 ? time : Math.min(firstTime, time);
+            lastTime = Math.max(lastTime, time);
+        }
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public int getMessages(User author) {
+        long[] counters = authors.get(author);
+        return counters == null ? 0 : (int) counters[COUNT];
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getBytes(User author) {
+        long[] counters = authors.get(author);
+        return counters == null ? 0 : counters[BYTES];
+    }
+
+    // 0 when unknown, messages migrated from the old formats carry no time
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public void write(BinaryWriter writer, UsersCollection users) throws IOException {
+        writer.writeVarInt(messages);
+        writer.writeVarLong(bytes);
+        writer.writeVarLong(firstTime);
+        writer.writeVarLong(lastTime);
+        writer.writeVarInt(authors.size());
+        for (Map.Entry<User, long[]> entry : authors.entrySet()) {
+            writer.writeVarInt(users.getId(entry.getKey()));
+            writer.writeVarLong(entry.getValue()[COUNT]);
+            writer.writeVarLong(entry.getValue()[BYTES]);
+        }
+    }
+
+    public static ChatStats read(BinaryReader reader, UsersCollection users) throws IOException {
+        ChatStats stats = new ChatStats();
+        stats.messages = reader.readVarInt();
+        stats.bytes = reader.readVarLong();
+        stats.firstTime = reader.readVarLong();
+        stats.lastTime = reader.readVarLong();
+        int count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            User author = users.getUser(reader.readVarInt());
+            if (author == null) {
+                throw new IOException("unknown author in chat statistics");
+            }
+            stats.authors.put(author, new long[]{reader.readVarLong(), reader.readVarLong()});
+        }
+        return stats;
+    }
+
+    static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
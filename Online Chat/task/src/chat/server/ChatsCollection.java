@@ -3,48 +3,63 @@ package chat.server;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatsCollection implements Serializable {
     @Serial
     private static final long serialVersionUID = 10L;
-    private static final Logger logger = Logger.getGlobal();
-    private final Map<User, Map<User, Chat>> chats = new HashMap<>();
-    public void addChat(Chat chat) {
-        for (User user : chat.getUsers()) {
-            Map<User, Chat> userChats = chats.getOrDefault(user, new HashMap<>());
-            for (User subUser : chat.getUsers()) {
-                if (subUser == user) {
-                    continue;
-                }
-                userChats.putIfAbsent(subUser, chat);
-            }
-            chats.put(user, userChats);
-        }
+    //only filled when a legacy java-serialized message db is read, see readResolve
+    private Map<User, Map<User, Chat>> chats;
+    private transient Map<ChatKey, Chat> chatsByKey = new ConcurrentHashMap<>();
+    private transient Map<User, Map<User, Chat>> userChats = new ConcurrentHashMap<>();
+    private transient UnreadIndex unreadIndex = new UnreadIndex();
+    private transient MessageJournal journal;
+    private transient ChatCache cache;
+
+    public void setStorage(MessageJournal journal, ChatCache cache) {
+        this.journal = journal;
+        this.cache = cache;
+        chatsByKey.values().forEach(chat -> chat.attach(journal, cache));
+    }
+
+    public Set<Chat> getAllChats() {
+        return new HashSet<>(chatsByKey.values());
     }
 
     public Map<User, Chat> getUserChats(User user) {
-        return chats.getOrDefault(user, new HashMap<>());
+        return userChats.getOrDefault(user, Map.of());
+    }
+
+    public Set<Chat> getUnreadChats(User user) {
+        return unreadIndex.getUnreadChats(user);
     }
 
+    // creates the chat on first use, concurrent callers for the same users always get the same instance
     public Chat getChat(Set<User> users) {
-        for (User user : users) {
-            if (!chats.containsKey(user)) {
-                logger.log(Level.INFO, "no chats for master user: {0}", user.name());
-                continue;
-            }
-            for (User subUser : users) {
-                if (subUser == user) {
-                    continue;
-                }
-                if (getUserChats(user).containsKey(subUser)) {
-                    return getUserChats(user).get(subUser);
+        return chatsByKey.computeIfAbsent(ChatKey.of(users), key -> register(new Chat(users)));
+    }
+
+    private Chat register(Chat chat) {
+        chat.attach(journal, cache);
+        chat.trackUnread(unreadIndex);
+        for (User user : chat.getUsers()) {
+            Map<User, Chat> chatsOfUser = userChats.computeIfAbsent(user, key -> new ConcurrentHashMap<>());
+            for (User subUser : chat.getUsers()) {
+                if (subUser != user) {
+                    chatsOfUser.putIfAbsent(subUser, chat);
                 }
-                logger.log(Level.INFO, "no chat for user: {0}", subUser.name());
             }
         }
-        addChat(new Chat(users));
-        return getChat(users);
+        return chat;
+    }
+
+    // legacy collections keep every chat twice, once under each of its users
+    @Serial
+    private Object readResolve() {
+        ChatsCollection collection = new ChatsCollection();
+        chats.values().forEach(chatsOfUser -> chatsOfUser.values()
+                .forEach(chat -> collection.chatsByKey.computeIfAbsent(chat.getKey(),
+                        key -> collection.register(chat))));
+        return collection;
     }
 }
@@ -0,0 +1,442 @@
+package chat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// every node owns the users whose name hashes to it and a user can only log in on its own node;
+// the registry and the presence are replicated to all nodes, a chat message is forwarded to the node
+// of each recipient, which keeps its own copy of the chat with its user's read marker
+public class Cluster {
+    private static final int NODE = 1;
+    private static final int USER = 2;
+    private static final int GRANT = 3;
+    private static final int REVOKE = 4;
+    private static final int BAN = 5;
+    private static final int ONLINE = 6;
+    private static final int OFFLINE = 7;
+    private static final int MESSAGE = 8;
+    private static final int NOTICE = 9;
+    private static final int BROADCAST = 10;
+    //the sequence number of the greeting records, they describe the state of the peer and are always applied
+    private static final long UNSEQUENCED = 0;
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    //the client address of every node, then its link address
+    private final List<InetSocketAddress> clientAddresses;
+    private final List<InetSocketAddress> linkAddresses;
+    private final int self;
+    private final ClusterLink[] links;
+    private final Inbound[] inbound;
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private ServerSocket linkSocket;
+
+    // what arrived from one peer; a reconnecting peer can overlap its old connection, so the records of both are
+    // applied under one lock
+    private static final class Inbound {
+        private final Lock lock = new ReentrantLock();
+        private long epoch;
+        private long applied;
+
+        // the last record applied in this run of the peer, a new run starts from nothing
+        long resume(long peerEpoch) {
+            lock.lock();
+            try {
+                if (epoch != peerEpoch) {
+                    epoch = peerEpoch;
+                    applied = 0;
+                }
+                return applied;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordBody {
+        void write(BinaryWriter writer) throws IOException;
+    }
+
+    public Cluster(Server server, List<InetSocketAddress> clientAddresses, List<InetSocketAddress> linkAddresses,
+                   int self, int maxPending) {
+        this.server = server;
+        this.clientAddresses = clientAddresses;
+        this.linkAddresses = linkAddresses;
+        this.self = self;
+        this.links = new ClusterLink[linkAddresses.size()];
+        this.inbound = new Inbound[linkAddresses.size()];
+        for (int node = 0; node < links.length; node++) {
+            if (node != self) {
+                links[node] = new ClusterLink(this, node, linkAddresses.get(node), maxPending);
+                inbound[node] = new Inbound();
+            }
+        }
+    }
+
+    // chat.cluster.nodes lists host:clientPort:linkPort of every node in the same order on all of them,
+    // chat.cluster.node is the index of this one; without the list the server runs alone
+    public static Cluster fromProperties(Server server) {
+        String nodes = System.getProperty("chat.cluster.nodes");
+        if (nodes == null || nodes.isBlank()) {
+            return null;
+        }
+        List<InetSocketAddress> clientAddresses = new ArrayList<>();
+        List<InetSocketAddress> linkAddresses = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            String[] parts = node.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("cluster node is not host:clientPort:linkPort: " + node);
+            }
+            clientAddresses.add(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])));
+            linkAddresses.add(new InetSocketAddress(parts[0], Integer.parseInt(parts[2])));
+        }
+        return new Cluster(server, clientAddresses, linkAddresses, Integer.getInteger("chat.cluster.node", 0),
+                Integer.getInteger("chat.cluster.pending", 1 << 16));
+    }
+
+    public int getClientPort() {
+        return clientAddresses.get(self).getPort();
+    }
+
+    public int ownerOf(String name) {
+        return Math.floorMod(name.hashCode(), links.length);
+    }
+
+    public boolean isLocal(String name) {
+        return ownerOf(name) == self;
+    }
+
+    public String getAddress(String name) {
+        InetSocketAddress address = clientAddresses.get(ownerOf(name));
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    public void start() throws IOException {
+        linkSocket = new ServerSocket(linkAddresses.get(self).getPort());
+        startThread(this::acceptLinks, "cluster-accept");
+        for (ClusterLink link : links) {
+            if (link != null) {
+                startThread(link, "cluster-link");
+            }
+        }
+        logger.log(Level.INFO, "cluster: node {0} of {1}", new Object[]{self, links.length});
+    }
+
+    private static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void publishUser(User user) {
+        publish(writer -> {
+            writer.writeByte(USER);
+            writer.writeString(user.name());
+            writer.writeSignedVarInt(user.passwordHash());
+        });
+    }
+
+    public void publishGrant(User user) {
+        publishName(GRANT, user.name());
+    }
+
+    public void publishRevoke(User user) {
+        publishName(REVOKE, user.name());
+    }
+
+    public void publishBan(User user) {
+        publishName(BAN, user.name());
+    }
+
+    public void publishPresence(User user, boolean online) {
+        publishName(online ? ONLINE : OFFLINE, user.name());
+    }
+
+    // returns false when a node that is down for too long did not get the broadcast
+    public boolean publishBroadcast(User author, String text) {
+        return publish(writer -> {
+            writer.writeByte(BROADCAST);
+            writer.writeString(author.name());
+            writer.writeString(text);
+        });
+    }
+
+    // returns false when the node of the recipient is down for too long, the message did not reach it
+    public boolean forwardMessage(User recipient, Message message) {
+        return send(ownerOf(recipient.name()), writer -> {
+            writer.writeByte(MESSAGE);
+            writer.writeString(message.author().name());
+            writer.writeString(recipient.name());
+            writer.writeVarLong(message.time());
+            writer.writeString(message.text());
+        });
+    }
+
+    public boolean forwardNotice(User recipient, String text) {
+        return send(ownerOf(recipient.name()), writer -> {
+            writer.writeByte(NOTICE);
+            writer.writeString(recipient.name());
+            writer.writeString(text);
+        });
+    }
+
+    // the registry and the presence of this node's users are sent again in the greeting of the next connection, so a
+    // node that missed them catches up once it is reachable again
+    private void publishName(int type, String name) {
+        if (!publish(writer -> {
+            writer.writeByte(type);
+            writer.writeString(name);
+        })) {
+            logger.warning("cluster record not queued for every node, they get it with the next greeting");
+        }
+    }
+
+    private boolean publish(RecordBody body) {
+        byte[] record = encode(body);
+        boolean queued = true;
+        for (ClusterLink link : links) {
+            if (link != null) {
+                queued &= link.send(record);
+            }
+        }
+        return queued;
+    }
+
+    private boolean send(int node, RecordBody body) {
+        return node == self || links[node].send(encode(body));
+    }
+
+    private static byte[] encode(RecordBody body) {
+        BinaryWriter writer = new BinaryWriter();
+        try {
+            body.write(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toByteArray();
+    }
+
+    // the first records on every new link: who is talking, then the users this node owns and who of them is online,
+    // so a peer that was down catches up on the registry and the presence
+    void writeGreeting(BinaryWriter writer, long epoch) throws IOException {
+        writer.writeBytes(encode(record -> {
+            record.writeByte(NODE);
+            record.writeVarInt(self);
+            record.writeVarLong(epoch);
+        }));
+        UsersCollection users = server.getRegisteredUsers();
+        for (User user : server.getUserJournal().snapshot()) {
+            if (!isLocal(user.name())) {
+                continue;
+            }
+            writer.writeVarLong(UNSEQUENCED);
+            writer.writeBytes(encode(record -> {
+                record.writeByte(USER);
+                record.writeString(user.name());
+                record.writeSignedVarInt(user.passwordHash());
+            }));
+            if (users.isModerator(user)) {
+                writer.writeVarLong(UNSEQUENCED);
+                writer.writeBytes(encode(record -> {
+                    record.writeByte(GRANT);
+                    record.writeString(user.name());
+                }));
+            }
+            if (users.isBanned(user)) {
+                writer.writeVarLong(UNSEQUENCED);
+                writer.writeBytes(encode(record -> {
+                    record.writeByte(BAN);
+                    record.writeString(user.name());
+                }));
+            }
+        }
+        List<User> online = new ArrayList<>();
+        server.getPresence().forEach((user, session) -> online.add(user));
+        for (User user : online) {
+            writer.writeVarLong(UNSEQUENCED);
+            writer.writeBytes(encode(record -> {
+                record.writeByte(ONLINE);
+                record.writeString(user.name());
+            }));
+        }
+    }
+
+    private void acceptLinks() {
+        while (!linkSocket.isClosed()) {
+            try {
+                Socket socket = linkSocket.accept();
+                startThread(() -> receive(socket), "cluster-receiver");
+            } catch (IOException e) {
+                if (!linkSocket.isClosed()) {
+                    logger.warning("cluster accepting error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        if (linkSocket == null) {
+            return;
+        }
+        try {
+            linkSocket.close();
+        } catch (IOException e) {
+            logger.warning("cluster socket closing error: " + e.getMessage());
+        }
+    }
+
+    private void receive(Socket socket) {
+        int peer = -1;
+        try (socket; BinaryReader reader = new BinaryReader(socket.getInputStream())) {
+            BinaryReader greeting = new BinaryReader(reader.readBytes());
+            if (greeting.readByte() != NODE) {
+                throw new IOException("cluster link without a greeting");
+            }
+            peer = greeting.readVarInt();
+            if (peer < 0 || peer >= links.length || peer == self) {
+                throw new IOException("cluster link from an unknown node: " + peer);
+            }
+            long epoch = greeting.readVarLong();
+            Inbound from = inbound[peer];
+            BinaryWriter acknowledgements = new BinaryWriter(socket.getOutputStream());
+            acknowledge(acknowledgements, from.resume(epoch));
+            while (true) {
+                long sequence = reader.readVarLong();
+                long applied = applyOnce(from, epoch, sequence, reader.readBytes());
+                //acknowledged once the records that arrived together are applied, not one by one
+                if (reader.available() == 0) {
+                    acknowledge(acknowledgements, applied);
+                }
+            }
+        } catch (EOFException e) {
+            logger.log(Level.INFO, "cluster link from node {0}: closed", peer);
+        } catch (IOException e) {
+            logger.warning("cluster link from node " + peer + " error: " + e.getMessage());
+        }
+        //the users of a node that went away are offline until it comes back and greets again
+        int node = peer;
+        server.getPresence().leaveRemote(name -> ownerOf(name) == node);
+    }
+
+    private static void acknowledge(BinaryWriter acknowledgements, long applied) throws IOException {
+        acknowledgements.writeVarLong(applied);
+        acknowledgements.flush();
+    }
+
+    // a record sent again after a lost connection is skipped if it was applied before; returns the sequence number
+    // of the last applied record
+    private long applyOnce(Inbound from, long epoch, long sequence, byte[] record) throws IOException {
+        from.lock.lock();
+        try {
+            if (from.epoch != epoch) {
+                from.epoch = epoch;
+                from.applied = 0;
+            }
+            if (sequence != UNSEQUENCED && sequence <= from.applied) {
+                duplicates.increment();
+                return from.applied;
+            }
+            apply(new BinaryReader(record));
+            received.increment();
+            if (sequence != UNSEQUENCED) {
+                from.applied = sequence;
+            }
+            return from.applied;
+        } finally {
+            from.lock.unlock();
+        }
+    }
+
+    private void apply(BinaryReader record) throws IOException {
+        int type = record.readByte();
+        switch (type) {
+            case USER -> server.getUserJournal().register(new User(record.readString(), record.readSignedVarInt()));
+            case GRANT -> applyFlag(record, GRANT);
+            case REVOKE -> applyFlag(record, REVOKE);
+            case BAN -> applyFlag(record, BAN);
+            case ONLINE -> server.getPresence().joinRemote(record.readString());
+            case OFFLINE -> server.getPresence().leaveRemote(record.readString());
+            case MESSAGE -> applyMessage(record);
+            case NOTICE -> {
+                Session session = getSession(record.readString());
+                String text = record.readString();
+                if (session != null) {
+                    session.printEvent(text);
+                }
+            }
+            case BROADCAST -> {
+                Frame frame = Session.broadcastFrame(record.readString(), record.readString());
+                server.getPresence().forEach((user, session) -> session.printFrame(frame));
+            }
+            default -> logger.warning("unknown cluster record: " + type);
+        }
+    }
+
+    private void applyFlag(BinaryReader record, int type) throws IOException {
+        User user = server.getRegisteredUsers().getUser(record.readString());
+        if (user == null) {
+            logger.warning("cluster record for unknown user skipped");
+            return;
+        }
+        UsersCollection users = server.getRegisteredUsers();
+        if (type == GRANT && !users.isModerator(user)) {
+            server.getUserJournal().grant(user);
+        } else if (type == REVOKE && users.isModerator(user)) {
+            server.getUserJournal().revoke(user);
+        } else if (type == BAN && !users.isBanned(user)) {
+            server.getUserJournal().ban(user);
+        }
+        //a kick on another node, the notice went ahead of the ban
+        Session session = server.getPresence().get(user);
+        if (type == BAN && session != null && server.getPresence().leave(user, session)) {
+            publishPresence(user, false);
+        }
+    }
+
+    // the recipient's node appends the message to its own copy of the chat
+    private void applyMessage(BinaryReader record) throws IOException {
+        User author = server.getRegisteredUsers().getUser(record.readString());
+        User recipient = server.getRegisteredUsers().getUser(record.readString());
+        long time = record.readVarLong();
+        String text = record.readString();
+        if (author == null || recipient == null) {
+            logger.warning("cluster message for unknown user skipped");
+            return;
+        }
+        Message message = new Message(author, text, time);
+        Chat chat = server.getOpenedChats().getChat(Set.of(author, recipient));
+        Frame frame = message.toFrame("", chat.sendMessage(message));
+        Session session = server.getPresence().get(recipient);
+        if (session != null) {
+            session.deliver(chat, frame);
+        }
+    }
+
+    private Session getSession(String name) {
+        User user = server.getRegisteredUsers().getUser(name);
+        return user == null ? null : server.getPresence().get(user);
+    }
+
+    public String describe() {
+        StringBuilder description = new StringBuilder("node %d, received %d, duplicates skipped %d".formatted(self,
+                received.sum(), duplicates.sum()));
+        for (ClusterLink link : links) {
+            if (link != null) {
+                description.append("; ").append(link.describe());
+            }
+        }
+        return description.toString();
+    }
+}
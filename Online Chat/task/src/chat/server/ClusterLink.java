@@ -0,0 +1,134 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// the connection to one peer, records are queued and written by its own thread, which reconnects while the peer is down;
+// every record gets the next sequence number of the link and is kept until the peer acknowledges it, so a lost
+// connection loses nothing and the peer skips the records it gets a second time
+public class ClusterLink implements Runnable {
+    private static final int RECONNECT_DELAY = 1000;
+    private static final int ACKNOWLEDGE_TIMEOUT = 5000;
+    private final Logger logger = Logger.getGlobal();
+    private final Cluster cluster;
+    private final int peer;
+    private final InetSocketAddress address;
+    private final BlockingQueue<byte[]> pending;
+    //written to the peer and not acknowledged yet, only touched by the thread of the link
+    private final Deque<byte[]> unacknowledged = new ArrayDeque<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    //tells the peer which run of this node the sequence numbers belong to, they start from 1 again after a restart
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    //the sequence number of the first unacknowledged record
+    private volatile long firstSequence = 1;
+    private volatile boolean connected;
+
+    public ClusterLink(Cluster cluster, int peer, InetSocketAddress address, int maxPending) {
+        this.cluster = cluster;
+        this.peer = peer;
+        this.address = address;
+        this.pending = new LinkedBlockingQueue<>(maxPending);
+    }
+
+    // returns false when the queue is full, the peer is down for longer than the queue lasts and the caller has to
+    // tell whoever sent the record
+    public boolean send(byte[] record) {
+        if (pending.offer(record)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, RECONNECT_DELAY);
+                socket.setTcpNoDelay(true);
+                //a peer that neither acknowledges nor closes is taken as gone, the records are sent again
+                socket.setSoTimeout(ACKNOWLEDGE_TIMEOUT);
+                BinaryWriter writer = new BinaryWriter(socket.getOutputStream());
+                BinaryReader acknowledgements = new BinaryReader(socket.getInputStream());
+                cluster.writeGreeting(writer, epoch);
+                writer.flush();
+                //the peer answers with the last record it applied, the ones after it are sent again
+                acknowledge(acknowledgements.readVarLong());
+                long sequence = firstSequence;
+                for (byte[] record : unacknowledged) {
+                    writer.writeVarLong(sequence++);
+                    writer.writeBytes(record);
+                }
+                writer.flush();
+                connected = true;
+                logger.log(Level.INFO, "cluster link to node {0}: connected", peer);
+                while (true) {
+                    byte[] next = unacknowledged.isEmpty() ? pending.take() : pending.poll();
+                    if (next == null) {
+                        //nothing new to send, waiting for the acknowledgement also notices a connection gone silently
+                        acknowledge(acknowledgements.readVarLong());
+                        continue;
+                    }
+                    batch.add(next);
+                    pending.drainTo(batch);
+                    unacknowledged.addAll(batch);
+                    for (byte[] record : batch) {
+                        writer.writeVarLong(sequence++);
+                        writer.writeBytes(record);
+                    }
+                    writer.flush();
+                    sent.add(batch.size());
+                    batch.clear();
+                    while (acknowledgements.available() > 0) {
+                        acknowledge(acknowledgements.readVarLong());
+                    }
+                }
+            } catch (IOException e) {
+                //the records of a batch cut short are already among the unacknowledged ones
+                batch.clear();
+                if (connected) {
+                    logger.warning("cluster link to node " + peer + " lost: " + e.getMessage());
+                }
+                connected = false;
+                sleep();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void acknowledge(long applied) {
+        long first = firstSequence;
+        while (first <= applied && !unacknowledged.isEmpty()) {
+            unacknowledged.pollFirst();
+            first++;
+        }
+        firstSequence = first;
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String describe() {
+        return "node %d %s, sent %d, acknowledged %d, queued %d, rejected %d".formatted(peer,
+                connected ? "up" : "down", sent.sum(), firstSequence - 1, pending.size(), rejected.sum());
+    }
+}
@@ -1,24 +1,63 @@
 package chat.server;
 
+import java.util.Arrays;
+
 public enum CommandList {
     AUTH("/auth"),
+    BROADCAST("/broadcast"),
     CHAT("/chat"),
+    CREATE("/create"),
     EXIT("/exit"),
     GRANT("/grant"),
     HISTORY("/history"),
+    JOIN("/join"),
     KICK("/kick"),
+    LEAVE("/leave"),
     LIST("/list"),
+    METRICS("/metrics"),
+    PROTOCOL("/protocol"),
+    QUEUES("/queues"),
     REGISTRATION("/registration"),
     REVOKE("/revoke"),
     STATS("/stats"),
     UNKNOWN("/unknown"),
     UNREAD("/unread");
+    //commands bucketed by the length of their word, a lookup compares in place without a substring
+    private static final CommandList[][] BY_LENGTH;
     private final String text;
 
+    static {
+        int maxLength = 0;
+        for (CommandList command : values()) {
+            maxLength = Math.max(maxLength, command.text.length());
+        }
+        BY_LENGTH = new CommandList[maxLength + 1][0];
+        for (CommandList command : values()) {
+            CommandList[] bucket = BY_LENGTH[command.text.length()];
+            bucket = Arrays.copyOf(bucket, bucket.length + 1);
+            bucket[bucket.length - 1] = command;
+            BY_LENGTH[command.text.length()] = bucket;
+        }
+    }
+
     CommandList(String text) {
         this.text = text;
     }
 
+    // the command word is line[start, end), anything that is not a known command is UNKNOWN
+    public static CommandList of(String line, int start, int end) {
+        int length = end - start;
+        if (length >= BY_LENGTH.length) {
+            return UNKNOWN;
+        }
+        for (CommandList command : BY_LENGTH[length]) {
+            if (line.regionMatches(start, command.text, 0, length)) {
+                return command;
+            }
+        }
+        return UNKNOWN;
+    }
+
     @Override
     public String toString() {
         return text;
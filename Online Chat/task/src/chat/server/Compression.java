@@ -0,0 +1,26 @@
+package chat.server;
+
+// v2 stream compression of server frames, negotiated together with the protocol
+public enum Compression {
+    NONE("none"),
+    DEFLATE("deflate");
+    private final String text;
+
+    Compression(String text) {
+        this.text = text;
+    }
+
+    public static Compression of(String text) {
+        for (Compression compression : values()) {
+            if (compression.text.equalsIgnoreCase(text.trim())) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression: " + text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,26 @@
+package chat.server;
+
+public enum DurabilityMode {
+    SYNC("sync"),
+    GROUP("group"),
+    OS("os");
+    private final String text;
+
+    DurabilityMode(String text) {
+        this.text = text;
+    }
+
+    public static DurabilityMode of(String text) {
+        for (DurabilityMode mode : values()) {
+            if (mode.text.equalsIgnoreCase(text.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("unknown durability mode: " + text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,101 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class EventLoop implements Runnable {
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    private final Selector selector;
+    private final Queue<Runnable> tasks;
+    private volatile Thread thread;
+
+    public EventLoop(Server server) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.tasks = new ConcurrentLinkedQueue<>();
+    }
+
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                NioConnection connection = new NioConnection(channel, this, OutboundQueue.fromProperties());
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.open(key, new Session(connection, server));
+            } catch (IOException e) {
+                logger.warning("channel registration error: " + e.getMessage());
+            }
+        });
+    }
+
+    public void execute(Runnable task) {
+        if (Thread.currentThread() == thread) {
+            task.run();
+            return;
+        }
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        logger.info("event loop: start");
+        while (!thread.isInterrupted()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.warning("selector error: " + e.getMessage());
+                break;
+            }
+            runTasks();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                //a failing session must not take the other connections of this loop down with it
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.read();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "session error, closing the connection", e);
+                    close(connection);
+                }
+            }
+        }
+        selector.keys().forEach(key -> close((NioConnection) key.attachment()));
+        logger.info("event loop: stop");
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "event loop task error", e);
+            }
+        }
+    }
+
+    private void close(NioConnection connection) {
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "connection closing error", e);
+        }
+    }
+}
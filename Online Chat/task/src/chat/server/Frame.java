@@ -0,0 +1,52 @@
+package chat.server;
+
+// an outbound frame, encoded lazily and at most once per protocol so that connections can share it
+public final class Frame {
+    private static final String TOO_LONG =
+            "[message too long for this client: %d bytes, connect with protocol v2 to read it]";
+    private final FrameType type;
+    private final long id;
+    private final String[] parts;
+    private volatile byte[] legacy;
+    private volatile byte[] chunks;
+
+    public Frame(FrameType type, long id, String... parts) {
+        this.type = type;
+        this.id = id;
+        this.parts = parts;
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // legacy connections get the frame truncated to what writeUTF can carry; a chat message that long is not cut
+    // but its text is replaced by a notice, so the recipient knows it missed something
+    public byte[] encode(Protocol protocol) {
+        if (protocol == Protocol.V1) {
+            byte[] encoded = legacy;
+            if (encoded == null) {
+                boolean tooLong = type == FrameType.CHAT && !Frames.fitsLegacy(parts);
+                encoded = Frames.encodeTruncated(tooLong ? tooLong() : parts);
+                legacy = encoded;
+            }
+            return encoded;
+        }
+        byte[] encoded = chunks;
+        if (encoded == null) {
+            encoded = Frames.encodeChunked(type, id, parts);
+            chunks = encoded;
+        }
+        return encoded;
+    }
+
+    private String[] tooLong() {
+        String[] notice = parts.clone();
+        notice[parts.length - 1] = TOO_LONG.formatted(Frames.legacyLength(parts[parts.length - 1]));
+        return notice;
+    }
+}
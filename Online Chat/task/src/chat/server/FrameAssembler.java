@@ -0,0 +1,116 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// joins the chunks of inbound v2 messages, the chunks of one message follow each other without interleaving
+public class FrameAssembler {
+    private final int maxMessage;
+    private byte[] text = new byte[256];
+    private int length;
+    private boolean started;
+    private boolean oversized;
+    private FrameType type;
+    private long id;
+    //set once deflate is negotiated, compressed payloads of the connection form one stream
+    private Inflater inflater;
+
+    public FrameAssembler(int maxMessage) {
+        this.maxMessage = maxMessage;
+    }
+
+    public static FrameAssembler fromProperties() {
+        return new FrameAssembler(Integer.getInteger("chat.protocol.message", 1 << 20));
+    }
+
+    public void enableInflation() {
+        inflater = new Inflater(true);
+    }
+
+    // consumes one frame body, returns true when it completes a message
+    public boolean add(ByteBuffer body, int bodyLength) throws IOException {
+        int end = body.position() + bodyLength;
+        int flags = body.get() & 0xFF;
+        FrameType frameType = FrameType.of(flags & Frames.TYPE_MASK);
+        long frameId = Frames.getVarLong(body, end);
+        if (!started) {
+            started = true;
+            type = frameType;
+            id = frameId;
+        } else if (frameType != type || frameId != id) {
+            throw new IOException("interleaved chunks of message " + id);
+        }
+        if ((flags & Frames.COMPRESSED) != 0) {
+            inflate(body, end);
+        } else {
+            append(body, end - body.position());
+        }
+        body.position(end);
+        return (flags & Frames.MORE) == 0;
+    }
+
+    private void append(ByteBuffer body, int size) {
+        if (oversized || length + size > maxMessage) {
+            oversized = true;
+            return;
+        }
+        ensureCapacity(length + size);
+        body.get(text, length, size);
+        length += size;
+    }
+
+    // the window has to see every compressed payload, so an oversized message is still inflated
+    private void inflate(ByteBuffer body, int end) throws IOException {
+        if (inflater == null) {
+            throw new IOException("compressed frame without negotiated compression");
+        }
+        int size = end - body.position();
+        byte[] compressed = new byte[size + FrameCompressor.SYNC_TRAILER.length];
+        body.get(compressed, 0, size);
+        System.arraycopy(FrameCompressor.SYNC_TRAILER, 0, compressed, size, FrameCompressor.SYNC_TRAILER.length);
+        inflater.setInput(compressed);
+        int start = length;
+        try {
+            while (!inflater.needsInput()) {
+                ensureCapacity(length + 1024);
+                length += inflater.inflate(text, length, text.length - length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed frame error: " + e.getMessage());
+        }
+        if (oversized || length > maxMessage) {
+            oversized = true;
+            length = start;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > text.length) {
+            text = Arrays.copyOf(text, Math.max(capacity, text.length * 2));
+        }
+    }
+
+    public FrameType getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // the completed message, null if it was over the size limit and dropped; resets the assembler
+    public String takeText() {
+        String message = oversized ? null : new String(text, 0, length, StandardCharsets.UTF_8);
+        if (text.length > 4096) {
+            text = new byte[256];
+        }
+        length = 0;
+        started = false;
+        oversized = false;
+        return message;
+    }
+}
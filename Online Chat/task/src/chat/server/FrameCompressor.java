@@ -0,0 +1,101 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+// deflates the v2 frames of one connection in the order they are written, every payload ends with a sync flush
+// so the client can inflate it at once, while the window carries over and later frames refer back to earlier ones
+public class FrameCompressor {
+    //the sync flush trailer, every compressed payload has it and so it is left out on the wire
+    static final byte[] SYNC_TRAILER = {0, 0, (byte) 0xFF, (byte) 0xFF};
+    private final Deflater deflater;
+    private final int threshold;
+    private byte[] output = new byte[1024];
+    private long frames;
+    private long compressedFrames;
+    private long inputBytes;
+    private long outputBytes;
+    private long nanos;
+
+    public FrameCompressor(int level, int threshold) {
+        this.deflater = new Deflater(level, true);
+        this.threshold = threshold;
+    }
+
+    public static FrameCompressor fromProperties() {
+        return new FrameCompressor(Integer.getInteger("chat.compression.level", Deflater.DEFAULT_COMPRESSION),
+                Integer.getInteger("chat.compression.threshold", 64));
+    }
+
+    // the encoded frames with every payload of at least threshold bytes deflated, the same array if none is
+    public byte[] compress(byte[] encoded) {
+        frames++;
+        if (encoded.length < threshold) {
+            return encoded;
+        }
+        long start = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        byte[] result = new byte[encoded.length + 16];
+        int position = 0;
+        boolean compressed = false;
+        try {
+            while (buffer.hasRemaining()) {
+                int length = Frames.readLength(buffer);
+                int end = buffer.position() + length;
+                int flags = buffer.get() & 0xFF;
+                long id = Frames.getVarLong(buffer, end);
+                int payloadStart = buffer.position();
+                int payload = end - payloadStart;
+                int deflated = payload < threshold ? -1 : deflate(encoded, payloadStart, payload);
+                int header = 1 + Frames.varLongSize(id);
+                int bodyLength = header + (deflated < 0 ? payload : deflated);
+                if (result.length < position + 5 + bodyLength) {
+                    result = Arrays.copyOf(result, Math.max(position + 5 + bodyLength, result.length * 2));
+                }
+                position = Frames.putVarLong(result, position, bodyLength);
+                result[position++] = (byte) (deflated < 0 ? flags : flags | Frames.COMPRESSED);
+                position = Frames.putVarLong(result, position, id);
+                if (deflated < 0) {
+                    System.arraycopy(encoded, payloadStart, result, position, payload);
+                    position += payload;
+                } else {
+                    System.arraycopy(output, 0, result, position, deflated);
+                    position += deflated;
+                    compressed = true;
+                    inputBytes += payload;
+                    outputBytes += deflated;
+                }
+                buffer.position(end);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("malformed outbound frame", e);
+        }
+        if (!compressed) {
+            return encoded;
+        }
+        compressedFrames++;
+        nanos += System.nanoTime() - start;
+        return Arrays.copyOf(result, position);
+    }
+
+    // the payload goes into output, returns its deflated length without the sync trailer
+    private int deflate(byte[] input, int offset, int length) {
+        deflater.setInput(input, offset, length);
+        int size = 0;
+        while (true) {
+            size += deflater.deflate(output, size, output.length - size, Deflater.SYNC_FLUSH);
+            if (size < output.length) {
+                break;
+            }
+            output = Arrays.copyOf(output, output.length * 2);
+        }
+        return size - SYNC_TRAILER.length;
+    }
+
+    public String describe() {
+        return "deflate %d of %d frames, %d -> %d bytes, %d ns per frame".formatted(compressedFrames, frames,
+                inputBytes, outputBytes, compressedFrames == 0 ? 0 : nanos / compressedFrames);
+    }
+}
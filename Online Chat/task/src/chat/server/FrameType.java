@@ -0,0 +1,29 @@
+package chat.server;
+
+import java.io.IOException;
+
+// v2 frame types, replies carry the request id of the input they answer and chat frames the message id
+public enum FrameType {
+    CHAT(1),
+    COMMAND(2),
+    REPLY(3),
+    EVENT(4);
+    private final int code;
+
+    FrameType(int code) {
+        this.code = code;
+    }
+
+    public static FrameType of(int code) throws IOException {
+        for (FrameType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IOException("unknown frame type: " + code);
+    }
+
+    public int getCode() {
+        return code;
+    }
+}
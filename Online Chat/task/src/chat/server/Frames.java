@@ -0,0 +1,216 @@
+package chat.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class Frames {
+    private static final int MAX_LENGTH = 0xFFFF;
+    //a v2 frame is a varint body length, then the type code with the flags, a varlong id and UTF-8 text
+    static final int CHUNK_SIZE = 16 * 1024;
+    static final int MORE = 0x80;
+    static final int COMPRESSED = 0x40;
+    static final int TYPE_MASK = 0x3F;
+    //a chunk that deflate could not shrink comes out a little longer than it went in
+    static final int MAX_BODY = 1 + 10 + CHUNK_SIZE + CHUNK_SIZE / 1000 + 64;
+
+    private Frames() {
+    }
+
+    // writeUTF framing of the concatenated parts, built straight into one exactly sized array
+    public static byte[] encode(String... parts) throws UTFDataFormatException {
+        int length = 0;
+        for (String part : parts) {
+            length += encodedLength(part);
+        }
+        if (length > MAX_LENGTH) {
+            throw new UTFDataFormatException("frame too long: " + length + " bytes");
+        }
+        byte[] frame = new byte[2 + length];
+        frame[0] = (byte) (length >>> 8);
+        frame[1] = (byte) length;
+        int position = 2;
+        for (String part : parts) {
+            position = encodeInto(part, frame, position);
+        }
+        return frame;
+    }
+
+    // the length of the concatenated parts in writeUTF framing, without the two length bytes
+    public static int legacyLength(String... parts) {
+        int length = 0;
+        for (String part : parts) {
+            length += encodedLength(part);
+        }
+        return length;
+    }
+
+    public static boolean fitsLegacy(String... parts) {
+        return legacyLength(parts) <= MAX_LENGTH;
+    }
+
+    // for stored messages rendered with a prefix, the last part is cut so the frame always fits
+    public static byte[] encodeTruncated(String... parts) {
+        int length = 0;
+        for (int i = 0; i < parts.length - 1; i++) {
+            length += encodedLength(parts[i]);
+        }
+        String last = parts[parts.length - 1];
+        int lastLength = encodedLength(last);
+        if (length + lastLength > MAX_LENGTH) {
+            String[] fitted = parts.clone();
+            fitted[parts.length - 1] = last.substring(0, fittingChars(last, MAX_LENGTH - length));
+            parts = fitted;
+        }
+        try {
+            return encode(parts);
+        } catch (UTFDataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // v2 frames of the concatenated parts, a long text is cut into chunks that are all flagged MORE but the last
+    public static byte[] encodeChunked(FrameType type, long id, String... parts) {
+        byte[] text = String.join("", parts).getBytes(StandardCharsets.UTF_8);
+        int chunkCount = Math.max(1, (text.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        int header = 1 + varLongSize(id);
+        int lastChunk = text.length - (chunkCount - 1) * CHUNK_SIZE;
+        int length = (chunkCount - 1) * (varLongSize(header + CHUNK_SIZE) + header + CHUNK_SIZE)
+                + varLongSize(header + lastChunk) + header + lastChunk;
+        byte[] frames = new byte[length];
+        int position = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            int offset = i * CHUNK_SIZE;
+            int size = Math.min(CHUNK_SIZE, text.length - offset);
+            position = putVarLong(frames, position, header + size);
+            frames[position++] = (byte) (type.getCode() | (i < chunkCount - 1 ? MORE : 0));
+            position = putVarLong(frames, position, id);
+            System.arraycopy(text, offset, frames, position, size);
+            position += size;
+        }
+        return frames;
+    }
+
+    // the body length of the v2 frame at the buffer position, -1 without consuming anything if it is incomplete
+    public static int readLength(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        long length = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                buffer.position(start);
+                return -1;
+            }
+            int b = buffer.get();
+            length |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return checkLength(length);
+            }
+        }
+        throw new IOException("malformed frame length");
+    }
+
+    public static int readLength(InputStream input) throws IOException {
+        long length = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            int b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return checkLength(length);
+            }
+        }
+        throw new IOException("malformed frame length");
+    }
+
+    private static int checkLength(long length) throws IOException {
+        if (length < 2 || length > MAX_BODY) {
+            throw new IOException("bad frame length: " + length);
+        }
+        return (int) length;
+    }
+
+    // the id must end before the end of its frame body, which may be followed by more input in the buffer
+    static long getVarLong(ByteBuffer buffer, int end) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (buffer.position() >= end) {
+                throw new IOException("malformed frame header");
+            }
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed frame id");
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    static int putVarLong(byte[] frame, int position, long value) {
+        while ((value & ~0x7FL) != 0) {
+            frame[position++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        frame[position++] = (byte) value;
+        return position;
+    }
+
+    public static String decode(byte[] frame) throws IOException {
+        try (DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(frame))) {
+            return dataInputStream.readUTF();
+        }
+    }
+
+    private static int encodedLength(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            length += encodedLength(string.charAt(i));
+        }
+        return length;
+    }
+
+    private static int encodedLength(char c) {
+        if (c != 0 && c < 0x80) {
+            return 1;
+        }
+        return c < 0x800 ? 2 : 3;
+    }
+
+    private static int fittingChars(String string, int maxBytes) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            length += encodedLength(string.charAt(i));
+            if (length > maxBytes) {
+                return i;
+            }
+        }
+        return string.length();
+    }
+
+    // modified UTF-8 as DataOutputStream.writeUTF writes it: NUL and surrogates are encoded per char
+    private static int encodeInto(String string, byte[] frame, int position) {
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c != 0 && c < 0x80) {
+                frame[position++] = (byte) c;
+            } else if (c < 0x800) {
+                frame[position++] = (byte) (0xC0 | c >> 6);
+                frame[position++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                frame[position++] = (byte) (0xE0 | c >> 12);
+                frame[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                frame[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,31 @@
+package chat.server;
+
+// the counts of a histogram at one moment, values are nanoseconds and are shown in microseconds
+public record HistogramSnapshot(long[] counts, long count, long sum, long max) {
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // the upper bound of the bucket holding the given fraction of the values, never above the largest one
+    public long percentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(Histogram.upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public double percentileMicros(double fraction) {
+        return percentile(fraction) / 1e3;
+    }
+
+    public String describe() {
+        return "count %d, mean %.1f us, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us".formatted(count,
+                mean() / 1e3, percentileMicros(0.5), percentileMicros(0.99), percentileMicros(0.999), max / 1e3);
+    }
+}
@@ -0,0 +1,10 @@
+package chat.server;
+
+import java.util.List;
+
+// a slice of a chat history encoded as wire frames, first and last are 1-based message ids
+public record HistoryPage(int first, int last, int total, List<Frame> frames) {
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+}
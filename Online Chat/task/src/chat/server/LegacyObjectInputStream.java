@@ -0,0 +1,55 @@
+package chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+// reads the java-serialized files of earlier versions, usersdb.txt and messagedb.txt; a class of the server whose
+// serialVersionUID was bumped while its serialized fields stayed the same, like Chat at 11 before 12, is read with
+// the local description. A class whose fields changed still fails
+public class LegacyObjectInputStream extends ObjectInputStream {
+    private static final String PACKAGE = "chat.server.";
+
+    public LegacyObjectInputStream(InputStream input) throws IOException {
+        super(input);
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        ObjectStreamClass stream = super.readClassDescriptor();
+        if (!stream.getName().startsWith(PACKAGE)) {
+            return stream;
+        }
+        ObjectStreamClass local = ObjectStreamClass.lookup(Class.forName(stream.getName(), false,
+                LegacyObjectInputStream.class.getClassLoader()));
+        if (local == null || local.getSerialVersionUID() == stream.getSerialVersionUID()
+                || !sameFields(local, stream)) {
+            return stream;
+        }
+        return local;
+    }
+
+    private static boolean sameFields(ObjectStreamClass local, ObjectStreamClass stream) {
+        Comparator<ObjectStreamField> byName = Comparator.comparing(ObjectStreamField::getName);
+        ObjectStreamField[] localFields = local.getFields().clone();
+        ObjectStreamField[] streamFields = stream.getFields().clone();
+        if (localFields.length != streamFields.length) {
+            return false;
+        }
+        Arrays.sort(localFields, byName);
+        Arrays.sort(streamFields, byName);
+        for (int i = 0; i < localFields.length; i++) {
+            if (!localFields[i].getName().equals(streamFields[i].getName())
+                    || localFields[i].getTypeCode() != streamFields[i].getTypeCode()
+                    || !Objects.equals(localFields[i].getTypeString(), streamFields[i].getTypeString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,12 +3,25 @@ package chat.server;
 import java.io.Serial;
 import java.io.Serializable;
 
-public record Message(User author, String text) implements Serializable {
+//time is 0 for messages stored before it was recorded
+public record Message(User author, String text, long time) implements Serializable {
     @Serial
     private static final long serialVersionUID = 10L;
+
+    static final String SEPARATOR = ": ";
+
+    public Message(User author, String text) {
+        this(author, text, System.currentTimeMillis());
+    }
+
+    // the wire frame of the rendered message, without building the rendered string
+    public Frame toFrame(String prefix, long id) {
+        return new Frame(FrameType.CHAT, id, prefix, author.name(), SEPARATOR, text);
+    }
+
     @Override
     public String toString() {
-        return "%s: %s".formatted(author.name(), text);
+        return author.name() + SEPARATOR + text;
     }
 }
 
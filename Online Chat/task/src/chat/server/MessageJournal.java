@@ -0,0 +1,704 @@
+package chat.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class MessageJournal implements Closeable {
+    private static final int FORMAT_VERSION = 4;
+    private static final int RECORD_PEEK = 256;
+    private static final int MESSAGE = 1;
+    private static final int READ = 2;
+    private static final int COMMIT_ATTEMPTS = 3;
+    private static final long RETRY_MILLIS = 50;
+    private static final long WRITTEN_TIMEOUT_MILLIS = 10_000;
+    //identity marker, stops the writer thread
+    private static final PendingRecord CLOSE = new PendingRecord(new byte[0], 0);
+    private final Logger logger = Logger.getGlobal();
+    private final Path path;
+    private final ChatIndex index;
+    private final UsersCollection users;
+    private final DurabilityMode mode;
+    private final long groupNanos;
+    private final int groupRecords;
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+    //the write and sync of a batch alone, without the time its records waited for the writer
+    private final Histogram saveNanos = new Histogram();
+    private final Lock appendLock = new ReentrantLock();
+    private final Lock indexLock = new ReentrantLock();
+    private final AtomicBoolean indexing = new AtomicBoolean();
+    private final Lock writtenLock = new ReentrantLock();
+    private final Condition written = writtenLock.newCondition();
+    private FileChannel channel;
+    private FileChannel readChannel;
+    private Thread writer;
+    private long nextOffset;
+    private volatile long writtenLength;
+    private boolean closed;
+    //set once a batch could not be written, later appends are rejected instead of waiting for it forever
+    private volatile boolean broken;
+    private int replayedVersion = FORMAT_VERSION;
+    private volatile ChatsCollection indexedChats;
+    private long indexBytes;
+    //the writer thread's view of the length covered by the last index it started
+    private long indexedLength;
+
+    private record PendingRecord(byte[] bytes, long enqueuedNanos) {
+    }
+
+    @FunctionalInterface
+    private interface RecordBody {
+        void write(BinaryWriter writer) throws IOException;
+    }
+
+    public MessageJournal(Path path, UsersCollection users, DurabilityMode mode, long groupMillis, int groupRecords) {
+        this.path = path;
+        this.index = new ChatIndex(path.resolveSibling(path.getFileName() + ".index"), users);
+        this.users = users;
+        this.mode = mode;
+        this.groupNanos = TimeUnit.MILLISECONDS.toNanos(groupMillis);
+        this.groupRecords = groupRecords;
+    }
+
+    public static MessageJournal fromProperties(Path path, UsersCollection users) {
+        return new MessageJournal(path, users,
+                DurabilityMode.of(System.getProperty("chat.journal.durability", DurabilityMode.GROUP.toString())),
+                Long.getLong("chat.journal.group.millis", 5),
+                Integer.getInteger("chat.journal.group.records", 256));
+    }
+
+    public boolean exists() {
+        return Files.exists(path);
+    }
+
+    public boolean isCurrentFormat() {
+        return exists() && replayedVersion == FORMAT_VERSION;
+    }
+
+    public void open() throws IOException {
+        if (exists() && replayedVersion != FORMAT_VERSION) {
+            Files.move(path, path.resolveSibling(path.getFileName() + ".v" + replayedVersion),
+                    StandardCopyOption.REPLACE_EXISTING);
+            logger.info("journal of an older format archived");
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            index.delete();
+            BinaryWriter header = new BinaryWriter();
+            header.writeHeader(FORMAT_VERSION);
+            channel.write(ByteBuffer.wrap(header.toByteArray()));
+        }
+        nextOffset = channel.size();
+        writtenLength = nextOffset;
+        indexedLength = nextOffset;
+        readChannel = FileChannel.open(path, StandardOpenOption.READ);
+        writer = new Thread(this::writeRecords, "journal-writer");
+        writer.start();
+        logger.log(Level.INFO, "journal opened, durability: {0}", mode);
+    }
+
+    // returns the journal offset of the record, or -1 once the journal is closed or broken
+    public long appendMessage(Chat chat, Message message, long previousOffset) {
+        return append(writer -> {
+            writer.writeByte(MESSAGE);
+            writeChat(writer, chat);
+            writer.writeVarInt(users.getId(message.author()));
+            writer.writeVarLong(previousOffset + 1);
+            writer.writeVarLong(message.time());
+            writer.writeString(message.text());
+        });
+    }
+
+    public void appendRead(Chat chat, User user, int index) {
+        append(writer -> {
+            writer.writeByte(READ);
+            writeChat(writer, chat);
+            writer.writeVarInt(users.getId(user));
+            writer.writeVarInt(index + 1);
+        });
+    }
+
+    private long append(RecordBody body) {
+        BinaryWriter payload = new BinaryWriter();
+        BinaryWriter record = new BinaryWriter();
+        try {
+            body.write(payload);
+            record.writeBytes(payload.toByteArray());
+        } catch (IOException e) {
+            logger.warning("journal record error: " + e.getMessage());
+            return -1;
+        }
+        byte[] bytes = record.toByteArray();
+        appendLock.lock();
+        try {
+            if (closed || broken) {
+                return -1;
+            }
+            long offset = nextOffset;
+            nextOffset += bytes.length;
+            appended.incrementAndGet();
+            pending.add(new PendingRecord(bytes, System.nanoTime()));
+            return offset;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // a standby appends the records of its primary unchanged, so the offsets that chain the messages of a chat
+    // stay valid; returns how many bytes were taken, a record cut off at the end is left for the next call
+    public int appendReplicated(byte[] bytes, int length, ChatsCollection chats) throws IOException {
+        int end = 0;
+        while (true) {
+            int next = recordEnd(bytes, end, length);
+            if (next < 0) {
+                break;
+            }
+            end = next;
+        }
+        if (end == 0) {
+            return 0;
+        }
+        appendLock.lock();
+        try {
+            if (closed || broken) {
+                throw new IOException(broken ? "journal broken" : "journal closed");
+            }
+            long offset = nextOffset;
+            BinaryReader reader = new BinaryReader(Arrays.copyOf(bytes, end));
+            for (int position = 0; position < end; ) {
+                byte[] record = reader.readBytes();
+                apply(new BinaryReader(record), offset + position, chats);
+                position += BinaryWriter.varIntSize(record.length) + record.length;
+            }
+            nextOffset += end;
+            appended.incrementAndGet();
+            pending.add(new PendingRecord(Arrays.copyOf(bytes, end), System.nanoTime()));
+            return end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // the end of the record starting at from, -1 if it is not complete before limit
+    private static int recordEnd(byte[] bytes, int from, int limit) {
+        long length = 0;
+        for (int position = from, shift = 0; position < limit && shift < Integer.SIZE; position++, shift += 7) {
+            length |= (long) (bytes[position] & 0x7F) << shift;
+            if ((bytes[position] & 0x80) == 0) {
+                long end = position + 1 + length;
+                return end <= limit ? (int) end : -1;
+            }
+        }
+        return -1;
+    }
+
+    // the length a standby already has, records past it are what it still misses
+    public long getLength() {
+        appendLock.lock();
+        try {
+            return nextOffset;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long getCommittedLength() {
+        return writtenLength;
+    }
+
+    // waits at most timeoutMillis for records committed past offset, returns the committed length
+    public long awaitCommitted(long offset, long timeoutMillis) throws InterruptedException {
+        writtenLock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (writtenLength <= offset && nanos > 0) {
+                nanos = written.awaitNanos(nanos);
+            }
+            return writtenLength;
+        } finally {
+            writtenLock.unlock();
+        }
+    }
+
+    public byte[] readCommitted(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(buffer, offset);
+        return buffer.array();
+    }
+
+    public List<Message> readMessages(long lastOffset) {
+        return readMessages(lastOffset, 0, Integer.MAX_VALUE);
+    }
+
+    // walks back from the newest message, skipping the newest ones and materializing at most limit messages
+    public List<Message> readMessages(long lastOffset, int skip, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, RECORD_PEEK));
+        try {
+            awaitWritten(lastOffset);
+            long offset = lastOffset;
+            int skipped = 0;
+            while (offset >= 0 && messages.size() < limit) {
+                BinaryReader record = new BinaryReader(readRecord(offset));
+                if (record.readByte() != MESSAGE) {
+                    throw new StreamCorruptedException("message chain broken at " + offset);
+                }
+                skipChat(record);
+                User author = users.getUser(record.readVarInt());
+                offset = record.readVarLong() - 1;
+                if (skipped < skip) {
+                    skipped++;
+                    continue;
+                }
+                long time = record.readVarLong();
+                messages.add(new Message(author, record.readString(), time));
+            }
+        } catch (IOException e) {
+            logger.warning("error chat history loading: " + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while loading chat history: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private byte[] readRecord(long offset) throws IOException {
+        ByteBuffer peek = ByteBuffer.allocate(RECORD_PEEK);
+        readFully(peek, offset);
+        BinaryReader header = new BinaryReader(peek.array());
+        int length = header.readVarInt();
+        int headerSize = BinaryWriter.varIntSize(length);
+        if (headerSize + length <= peek.position()) {
+            return Arrays.copyOfRange(peek.array(), headerSize, headerSize + length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(record, offset + headerSize);
+        return record.array();
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = readChannel.read(buffer, offset + buffer.position());
+            if (count < 0) {
+                if (buffer.position() > 0) {
+                    return;
+                }
+                throw new EOFException("no journal record at " + offset);
+            }
+        }
+    }
+
+    private void awaitWritten(long offset) throws IOException, InterruptedException {
+        writtenLock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(WRITTEN_TIMEOUT_MILLIS);
+            while (writtenLength <= offset) {
+                if (broken) {
+                    throw new IOException("journal broken, record at " + offset + " was not written");
+                }
+                if (nanos <= 0) {
+                    throw new IOException("journal record at " + offset + " not written in time");
+                }
+                nanos = written.awaitNanos(nanos);
+            }
+        } finally {
+            writtenLock.unlock();
+        }
+    }
+
+    private void writeRecords() {
+        List<PendingRecord> batch = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                closing = collectBatch(batch);
+            } catch (InterruptedException e) {
+                logger.warning("journal writer interrupted: " + e.getMessage());
+                Thread.currentThread().interrupt();
+                closing = true;
+            }
+            //a broken journal keeps draining the queue until it is closed, so nothing waits on the writer
+            if (!batch.isEmpty() && !broken && !commit(batch)) {
+                fail();
+            }
+            batch.clear();
+        }
+    }
+
+    // returns true once the close marker has been taken
+    private boolean collectBatch(List<PendingRecord> batch) throws InterruptedException {
+        PendingRecord record = pending.take();
+        switch (mode) {
+            case SYNC -> {
+                if (record == CLOSE) {
+                    return true;
+                }
+                batch.add(record);
+                return false;
+            }
+            case GROUP -> {
+                long deadline = System.nanoTime() + groupNanos;
+                while (record != null && record != CLOSE) {
+                    batch.add(record);
+                    if (batch.size() >= groupRecords) {
+                        return false;
+                    }
+                    record = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                }
+                return record == CLOSE;
+            }
+            default -> {
+                batch.add(record);
+                pending.drainTo(batch);
+                return batch.remove(CLOSE);
+            }
+        }
+    }
+
+    // returns false when the batch could not be written, a partly written batch is cut off before each retry
+    private boolean commit(List<PendingRecord> batch) {
+        int size = 0;
+        for (PendingRecord record : batch) {
+            size += record.bytes().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (PendingRecord record : batch) {
+            buffer.put(record.bytes());
+        }
+        buffer.flip();
+        long started = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (mode != DurabilityMode.OS) {
+                    channel.force(false);
+                }
+                break;
+            } catch (IOException e) {
+                logger.warning("journal writing error, attempt %d of %d: %s".formatted(attempt, COMMIT_ATTEMPTS,
+                        e.getMessage()));
+                if (attempt == COMMIT_ATTEMPTS || !rewind(buffer)) {
+                    return false;
+                }
+            }
+        }
+        saveNanos.record(System.nanoTime() - started);
+        writtenLock.lock();
+        try {
+            writtenLength += size;
+            written.signalAll();
+        } finally {
+            writtenLock.unlock();
+        }
+        scheduleIndex();
+        long now = System.nanoTime();
+        long latency = now - batch.get(0).enqueuedNanos();
+        committed.addAndGet(batch.size());
+        commits.incrementAndGet();
+        commitNanos.addAndGet(latency);
+        maxCommitNanos.accumulateAndGet(latency, Math::max);
+        return true;
+    }
+
+    private boolean rewind(ByteBuffer buffer) {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+            channel.truncate(writtenLength);
+            buffer.rewind();
+            return true;
+        } catch (IOException e) {
+            logger.warning("journal truncating error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while retrying journal write: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void fail() {
+        appendLock.lock();
+        try {
+            broken = true;
+        } finally {
+            appendLock.unlock();
+        }
+        writtenLock.lock();
+        try {
+            written.signalAll();
+        } finally {
+            writtenLock.unlock();
+        }
+        logger.severe("journal broken, messages are no longer saved: " + path);
+    }
+
+
+    public Histogram getSaveHistogram() {
+        return saveNanos;
+    }
+
+    public long getLag() {
+        return appended.get() - committed.get();
+    }
+
+    public String describe() {
+        long commitCount = Math.max(1, commits.get());
+        return "records appended %d, committed %d, lag %d, commits %d, commit latency avg %.3f ms, max %.3f ms%s"
+                .formatted(appended.get(), committed.get(), getLag(), commits.get(),
+                        commitNanos.get() / 1e6 / commitCount, maxCommitNanos.get() / 1e6, broken ? ", broken" : "");
+    }
+
+    public ChatsCollection replay() {
+        ChatsCollection chats = new ChatsCollection();
+        long validLength = 0;
+        int records = 0;
+        try (BinaryReader reader = new BinaryReader(Files.newInputStream(path))) {
+            try {
+                replayedVersion = reader.readHeader();
+            } catch (StreamCorruptedException e) {
+                //only the first format was written without a header
+                replayedVersion = 1;
+            }
+            if (replayedVersion == 1) {
+                records = replayLegacy(chats);
+                logger.log(Level.INFO, "journal replayed, records: {0}", records);
+                return chats;
+            }
+            if (replayedVersion > FORMAT_VERSION) {
+                throw new IOException("unsupported journal format version: " + replayedVersion);
+            }
+            validLength = Integer.BYTES + BinaryWriter.varIntSize(replayedVersion);
+            long coveredLength = replayedVersion == FORMAT_VERSION ? index.read(chats, Files.size(path)) : -1;
+            if (coveredLength < 0) {
+                chats = new ChatsCollection();
+            } else {
+                reader.skip(coveredLength - validLength);
+                validLength = coveredLength;
+            }
+            while (true) {
+                byte[] record = reader.readBytes();
+                apply(new BinaryReader(record), validLength, chats);
+                validLength += BinaryWriter.varIntSize(record.length) + record.length;
+                records++;
+            }
+        } catch (EOFException e) {
+            truncate(validLength);
+        } catch (StreamCorruptedException e) {
+            //records past a corrupted one can't be found, a journal of an older format is archived whole
+            logger.warning("corrupted journal record at %d: %s".formatted(validLength, e.getMessage()));
+            if (replayedVersion == FORMAT_VERSION) {
+                truncate(validLength);
+            }
+        } catch (IOException e) {
+            logger.warning("journal reading error: " + e.getMessage());
+        }
+        logger.log(Level.INFO, "journal replayed, records: {0}", records);
+        return chats;
+    }
+
+    private void apply(BinaryReader record, long offset, ChatsCollection chats) throws IOException {
+        int type = record.readByte();
+        int count = record.readVarInt();
+        Set<User> chatUsers = new HashSet<>(count);
+        for (int i = 0; i < count; i++) {
+            chatUsers.add(users.getUser(record.readVarInt()));
+        }
+        User user = users.getUser(record.readVarInt());
+        switch (type) {
+            case MESSAGE -> {
+                if (replayedVersion >= 3) {
+                    record.readVarLong();
+                }
+                long time = replayedVersion >= 4 ? record.readVarLong() : 0;
+                String text = record.readString();
+                if (replayedVersion == FORMAT_VERSION) {
+                    restoreMessage(chats, chatUsers, user, offset, ChatStats.utf8Length(text), time);
+                } else {
+                    applyMessage(chats, chatUsers, new Message(user, text, time));
+                }
+            }
+            case READ -> applyRead(chats, chatUsers, user, record.readVarInt() - 1);
+            default -> logger.warning("unknown journal record: " + type);
+        }
+    }
+
+    // the headerless layout written before the binary codec: int length, then writeUTF names
+    private int replayLegacy(ChatsCollection chats) {
+        int records = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = record.readByte();
+                int count = record.readUnsignedByte();
+                Set<User> chatUsers = new HashSet<>(count);
+                for (int i = 0; i < count; i++) {
+                    chatUsers.add(users.getUser(record.readUTF()));
+                }
+                User user = users.getUser(record.readUTF());
+                if (type == MESSAGE) {
+                    applyMessage(chats, chatUsers, new Message(user, record.readUTF(), 0));
+                } else {
+                    applyRead(chats, chatUsers, user, record.readInt());
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            logger.info("legacy journal replayed");
+        } catch (IOException e) {
+            logger.warning("legacy journal reading error: " + e.getMessage());
+        }
+        return records;
+    }
+
+    private void restoreMessage(ChatsCollection chats, Set<User> chatUsers, User author, long offset,
+                                int bytes, long time) {
+        if (chatUsers.contains(null) || author == null) {
+            logger.warning("journal record for unknown user skipped");
+            return;
+        }
+        chats.getChat(chatUsers).restoreMessage(offset, author, bytes, time);
+    }
+
+    private void applyMessage(ChatsCollection chats, Set<User> chatUsers, Message message) {
+        if (chatUsers.contains(null) || message.author() == null) {
+            logger.warning("journal record for unknown user skipped");
+            return;
+        }
+        chats.getChat(chatUsers).sendMessage(message);
+    }
+
+    private void applyRead(ChatsCollection chats, Set<User> chatUsers, User user, int index) {
+        if (chatUsers.contains(null) || user == null) {
+            logger.warning("journal record for unknown user skipped");
+            return;
+        }
+        chats.getChat(chatUsers).restoreRead(user, index);
+    }
+
+    private void truncate(long validLength) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                logger.warning("journal tail dropped, bytes: " + (channel.size() - validLength));
+                channel.truncate(validLength);
+            }
+        } catch (IOException e) {
+            logger.warning("journal truncating error: " + e.getMessage());
+        }
+    }
+
+    private void writeChat(BinaryWriter writer, Chat chat) throws IOException {
+        writer.writeVarInt(chat.getUsers().size());
+        for (User user : chat.getUsers()) {
+            writer.writeVarInt(users.getId(user));
+        }
+    }
+
+    private static void skipChat(BinaryReader record) throws IOException {
+        int count = record.readVarInt();
+        for (int i = 0; i < count; i++) {
+            record.readVarInt();
+        }
+    }
+
+    // rewrites the index in the background each time the journal grows by indexBytes, so a restart after a crash
+    // replays only the records written since the last one
+    public void keepIndex(ChatsCollection chats, long indexBytes) {
+        this.indexBytes = indexBytes;
+        this.indexedChats = chats;
+    }
+
+    private void scheduleIndex() {
+        ChatsCollection chats = indexedChats;
+        if (chats == null || writtenLength - indexedLength < indexBytes || !indexing.compareAndSet(false, true)) {
+            return;
+        }
+        indexedLength = writtenLength;
+        Thread thread = new Thread(() -> {
+            try {
+                writeIndex(chats);
+            } finally {
+                indexing.set(false);
+            }
+        }, "journal-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // the chats are summarized after the covered length is taken, so they may already hold later messages, which a
+    // replay skips; the index is only saved once every message it refers to is written
+    public void writeIndex(ChatsCollection chats) {
+        if (broken) {
+            logger.warning("chat index not saved, the journal is broken");
+            return;
+        }
+        indexLock.lock();
+        try {
+            long coveredLength = writtenLength;
+            List<ChatIndex.Entry> entries = new ArrayList<>();
+            long lastOffset = -1;
+            for (Chat chat : chats.getAllChats()) {
+                ChatIndex.Entry entry = chat.indexEntry();
+                entries.add(entry);
+                lastOffset = Math.max(lastOffset, entry.lastOffset());
+            }
+            awaitWritten(lastOffset);
+            index.write(entries, coveredLength);
+        } catch (IOException e) {
+            logger.warning("chat index not saved: " + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while saving chat index: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writer == null || !writer.isAlive()) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            closed = true;
+            pending.add(CLOSE);
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            writer.join();
+            channel.close();
+            readChannel.close();
+        } catch (IOException e) {
+            logger.warning("journal closing error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while closing journal: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+        logger.info("journal closed, " + describe());
+    }
+}
@@ -0,0 +1,177 @@
+package chat.server;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+// hot-path counters and latency histograms of the server; recording never locks, gauges such as the outbound
+// queue depths are only read when a snapshot is taken
+public class Metrics implements MetricsMXBean {
+    private static final String OBJECT_NAME = "chat.server:type=Metrics";
+    private static final int DEEPEST_QUEUES = 5;
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    //filled once for every command, so lookups never modify the map
+    private final Map<CommandList, Histogram> commands = new EnumMap<>(CommandList.class);
+    private final Histogram fanOut = new Histogram();
+    private final RateMeter accepted = new RateMeter();
+    private final LongAdder closed = new LongAdder();
+
+    private record QueueDepth(String name, int depth) {
+    }
+
+    public Metrics(Server server) {
+        this.server = server;
+        for (CommandList command : CommandList.values()) {
+            commands.put(command, new Histogram());
+        }
+    }
+
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            logger.warning("metrics registering error: " + e.getMessage());
+        }
+    }
+
+    public void recordCommand(CommandList command, long nanos) {
+        commands.get(command).record(nanos);
+    }
+
+    // from appending a message to handing it to the queue of every recipient
+    public void recordFanOut(long nanos) {
+        fanOut.record(nanos);
+    }
+
+    public void connectionAccepted() {
+        accepted.mark();
+    }
+
+    public void sessionClosed() {
+        closed.increment();
+    }
+
+    @Override
+    public long getAcceptedConnections() {
+        return accepted.getTotal();
+    }
+
+    @Override
+    public double getAcceptedPerSecond() {
+        return accepted.getRate();
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return accepted.getTotal() - closed.sum();
+    }
+
+    @Override
+    public int getOnlineUsers() {
+        return server.getPresence().size();
+    }
+
+    @Override
+    public long getMessages() {
+        return fanOut.snapshot().count();
+    }
+
+    @Override
+    public double getFanOutP50Micros() {
+        return fanOut.snapshot().percentileMicros(0.5);
+    }
+
+    @Override
+    public double getFanOutP99Micros() {
+        return fanOut.snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public double getFanOutMaxMicros() {
+        return fanOut.snapshot().max() / 1e3;
+    }
+
+    @Override
+    public double getJournalSaveP99Micros() {
+        MessageJournal journal = server.getMessageJournal();
+        return journal == null ? 0 : journal.getSaveHistogram().snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public double getUserJournalSyncP99Micros() {
+        UserJournal journal = server.getUserJournal();
+        return journal == null ? 0 : journal.getSyncHistogram().snapshot().percentileMicros(0.99);
+    }
+
+    @Override
+    public int getOutboundQueuedFrames() {
+        return queueDepths().stream().mapToInt(QueueDepth::depth).sum();
+    }
+
+    @Override
+    public int getOutboundMaxDepth() {
+        return queueDepths().stream().mapToInt(QueueDepth::depth).max().orElse(0);
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        commands.forEach((command, histogram) -> counts.put(command.toString(), histogram.snapshot().count()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getCommandP99Micros() {
+        Map<String, Double> latencies = new TreeMap<>();
+        commands.forEach((command, histogram) ->
+                latencies.put(command.toString(), histogram.snapshot().percentileMicros(0.99)));
+        return latencies;
+    }
+
+    private List<QueueDepth> queueDepths() {
+        List<QueueDepth> depths = new ArrayList<>();
+        server.getPresence().forEach((user, session) -> depths.add(new QueueDepth(user.name(), session.getQueueDepth())));
+        return depths;
+    }
+
+    @Override
+    public String getSnapshot() {
+        List<String> lines = new ArrayList<>();
+        lines.add("sessions: active %d, online %d, accepted %d (%.1f/s)".formatted(getActiveSessions(),
+                getOnlineUsers(), getAcceptedConnections(), getAcceptedPerSecond()));
+        lines.add("message fan-out: " + fanOut.snapshot().describe());
+        MessageJournal messageJournal = server.getMessageJournal();
+        if (messageJournal != null) {
+            lines.add("journal saves: " + messageJournal.getSaveHistogram().snapshot().describe());
+        }
+        UserJournal userJournal = server.getUserJournal();
+        if (userJournal != null) {
+            lines.add("users journal syncs: " + userJournal.getSyncHistogram().snapshot().describe());
+        }
+        List<QueueDepth> depths = queueDepths();
+        depths.sort(Comparator.comparingInt(QueueDepth::depth).reversed().thenComparing(QueueDepth::name));
+        List<String> deepest = new ArrayList<>();
+        for (QueueDepth depth : depths.subList(0, Math.min(DEEPEST_QUEUES, depths.size()))) {
+            deepest.add("%s %d".formatted(depth.name(), depth.depth()));
+        }
+        lines.add("outbound queues: %d frames in %d queues, deepest: %s".formatted(
+                depths.stream().mapToInt(QueueDepth::depth).sum(), depths.size(),
+                deepest.isEmpty() ? "none" : String.join(", ", deepest)));
+        commands.forEach((command, histogram) -> {
+            HistogramSnapshot snapshot = histogram.snapshot();
+            if (snapshot.count() > 0) {
+                lines.add("command %s: %s".formatted(command, snapshot.describe()));
+            }
+        });
+        return String.join("\n", lines);
+    }
+}
@@ -0,0 +1,36 @@
+package chat.server;
+
+import java.util.Map;
+
+// the metrics as JMX attributes, latencies are in microseconds
+public interface MetricsMXBean {
+    long getAcceptedConnections();
+
+    double getAcceptedPerSecond();
+
+    long getActiveSessions();
+
+    int getOnlineUsers();
+
+    long getMessages();
+
+    double getFanOutP50Micros();
+
+    double getFanOutP99Micros();
+
+    double getFanOutMaxMicros();
+
+    double getJournalSaveP99Micros();
+
+    double getUserJournalSyncP99Micros();
+
+    int getOutboundQueuedFrames();
+
+    int getOutboundMaxDepth();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Double> getCommandP99Micros();
+
+    String getSnapshot();
+}
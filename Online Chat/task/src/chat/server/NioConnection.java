@@ -0,0 +1,193 @@
+package chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+public class NioConnection implements Outbound {
+    private static final int INITIAL_BUFFER = 1024;
+    //the largest legacy frame, v2 frames are never longer
+    private static final int MAX_FRAME = 2 + 0xFFFF;
+    private final Logger logger = Logger.getGlobal();
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final OutboundQueue frames;
+    private final List<byte[]> batch;
+    //frames of the current gathering write, output[outputStart..outputEnd) are not fully written yet
+    private ByteBuffer[] output;
+    private int outputStart;
+    private int outputEnd;
+    private final AtomicBoolean flushScheduled;
+    private final FrameAssembler assembler;
+    private ByteBuffer input;
+    private Protocol inputProtocol = Protocol.V1;
+    private SelectionKey key;
+    private Session session;
+    private boolean closed;
+
+    public NioConnection(SocketChannel channel, EventLoop loop, OutboundQueue frames) {
+        this.channel = channel;
+        this.loop = loop;
+        this.frames = frames;
+        this.batch = new ArrayList<>();
+        this.output = new ByteBuffer[16];
+        this.flushScheduled = new AtomicBoolean();
+        this.assembler = FrameAssembler.fromProperties();
+        this.input = ByteBuffer.allocate(INITIAL_BUFFER);
+    }
+
+    void open(SelectionKey key, Session session) {
+        this.key = key;
+        this.session = session;
+        session.open();
+    }
+
+    @Override
+    public void printFrame(Frame frame) {
+        if (!frames.offer(frame)) {
+            loop.execute(this::close);
+            return;
+        }
+        scheduleFlush();
+    }
+
+    // called by the session on the loop thread while it handles an input, the next input is read in the new protocol
+    @Override
+    public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        inputProtocol = protocol;
+        if (!frames.upgrade(protocol, compression, acknowledgement)) {
+            loop.execute(this::close);
+            return;
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public OutboundQueue getQueue() {
+        return frames;
+    }
+
+    void read() {
+        try {
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            //frames are taken one at a time because the protocol can change after any of them
+            boolean complete = true;
+            while (complete && !closed) {
+                complete = inputProtocol == Protocol.V1 ? readLegacyFrame() : readFrame();
+            }
+            input.compact();
+            if (!input.hasRemaining() && input.capacity() < MAX_FRAME) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(input.capacity() * 2, MAX_FRAME));
+                input.flip();
+                input = larger.put(input);
+            }
+        } catch (IOException e) {
+            logger.warning("input channel error: " + e.getMessage());
+            close();
+        }
+    }
+
+    private boolean readLegacyFrame() throws IOException {
+        if (input.remaining() < 2) {
+            return false;
+        }
+        int length = Short.toUnsignedInt(input.getShort(input.position()));
+        if (input.remaining() < 2 + length) {
+            return false;
+        }
+        byte[] frame = new byte[2 + length];
+        input.get(frame);
+        session.handleInput(Frames.decode(frame));
+        return true;
+    }
+
+    private boolean readFrame() throws IOException {
+        int start = input.position();
+        int length = Frames.readLength(input);
+        if (length < 0) {
+            return false;
+        }
+        if (input.remaining() < length) {
+            input.position(start);
+            return false;
+        }
+        if (assembler.add(input, length)) {
+            session.handleFrame(assembler.getType(), assembler.getId(), assembler.takeText());
+        }
+        return true;
+    }
+
+    void flush() {
+        flushScheduled.set(false);
+        if (closed) {
+            return;
+        }
+        try {
+            while (true) {
+                if (outputStart == outputEnd && !fillOutput()) {
+                    break;
+                }
+                channel.write(output, outputStart, outputEnd - outputStart);
+                while (outputStart < outputEnd && !output[outputStart].hasRemaining()) {
+                    output[outputStart++] = null;
+                }
+                if (outputStart < outputEnd) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            logger.warning("output channel error: " + e.getMessage());
+            close();
+        }
+    }
+
+    // wraps the queued frames without copying them, they are shared with other connections
+    private boolean fillOutput() {
+        frames.drainTo(batch);
+        if (batch.isEmpty()) {
+            return false;
+        }
+        if (output.length < batch.size()) {
+            output = new ByteBuffer[Math.max(batch.size(), output.length * 2)];
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            output[i] = ByteBuffer.wrap(batch.get(i));
+        }
+        outputStart = 0;
+        outputEnd = batch.size();
+        batch.clear();
+        return true;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frames.close();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("channel closing error: " + e.getMessage());
+        }
+        session.stopSession();
+    }
+}
@@ -0,0 +1,11 @@
+package chat.server;
+
+public interface Outbound {
+    // the frame may be shared with other connections and must not be modified
+    void printFrame(Frame frame);
+
+    // frames printed after the acknowledgement are encoded in the new protocol
+    void upgrade(Protocol protocol, Compression compression, Frame acknowledgement);
+
+    OutboundQueue getQueue();
+}
@@ -0,0 +1,193 @@
+package chat.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+public class OutboundQueue {
+    private static final String SKIPPED_NOTICE = "Server: %d messages skipped";
+    private final Logger logger = Logger.getGlobal();
+    private final Deque<byte[]> frames = new ArrayDeque<>();
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int maxFrames;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private long bytes;
+    private int skipped;
+    private int highWaterFrames;
+    private long highWaterBytes;
+    private boolean closed;
+    //frames are encoded for the connection when they are queued
+    private volatile Protocol protocol = Protocol.V1;
+    //frames still queued in the framing before the upgrade, they are never compressed
+    private int legacyFrames;
+    private FrameCompressor compressor;
+
+    public OutboundQueue(int maxFrames, long maxBytes, OverflowPolicy policy) {
+        this.maxFrames = maxFrames;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    public static OutboundQueue fromProperties() {
+        return new OutboundQueue(Integer.getInteger("chat.outbound.frames", 1024),
+                Long.getLong("chat.outbound.bytes", 1L << 20),
+                OverflowPolicy.of(System.getProperty("chat.outbound.policy", OverflowPolicy.COALESCE.toString())));
+    }
+
+    // returns false when the consumer is too slow and has to be disconnected
+    public boolean offer(Frame frame) {
+        Protocol current = protocol;
+        byte[] encoded = frame.encode(current);
+        lock.lock();
+        try {
+            return enqueue(current == protocol ? encoded : frame.encode(protocol));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the acknowledgement is the last frame in the old protocol, everything queued after it uses the new one
+    public boolean upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        lock.lock();
+        try {
+            boolean offered = enqueue(acknowledgement.encode(this.protocol));
+            this.protocol = protocol;
+            legacyFrames = frames.size();
+            if (compression == Compression.DEFLATE && compressor == null) {
+                compressor = FrameCompressor.fromProperties();
+            }
+            return offered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Protocol getProtocol() {
+        return protocol;
+    }
+
+    private boolean enqueue(byte[] frame) {
+        if (closed) {
+            return false;
+        }
+        //a frame that alone exceeds the budget would evict everything queued and still overflow, so the policy
+        //applies to the frame itself
+        if (frame.length > maxBytes) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                logger.warning("outbound frame of %d bytes exceeds the queue, disconnecting".formatted(frame.length));
+                return false;
+            }
+            skipped++;
+            return true;
+        }
+        while (!frames.isEmpty() && (frames.size() >= maxFrames || bytes + frame.length > maxBytes)) {
+            if (policy == OverflowPolicy.DISCONNECT) {
+                logger.warning("outbound queue overflow, disconnecting slow consumer");
+                return false;
+            }
+            bytes -= frames.pollFirst().length;
+            legacyFrames = Math.max(0, legacyFrames - 1);
+            skipped++;
+        }
+        frames.addLast(frame);
+        bytes += frame.length;
+        highWaterFrames = Math.max(highWaterFrames, frames.size());
+        highWaterBytes = Math.max(highWaterBytes, bytes);
+        notEmpty.signal();
+        return true;
+    }
+
+    // blocks until at least one frame is queued, returns false once the queue is closed
+    public boolean awaitFrames() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called by the single writer of the connection, frames are compressed here because dropped ones never reach it
+    public int drainTo(List<byte[]> batch) {
+        int compressFrom;
+        FrameCompressor frameCompressor;
+        int count;
+        lock.lock();
+        try {
+            count = frames.size();
+            if (skipped > 0 && policy == OverflowPolicy.COALESCE) {
+                batch.add(skippedNotice());
+            } else if (skipped > 0) {
+                logger.warning("outbound queue overflow, dropped frames: " + skipped);
+            }
+            skipped = 0;
+            compressFrom = batch.size() + legacyFrames;
+            batch.addAll(frames);
+            frames.clear();
+            bytes = 0;
+            legacyFrames = 0;
+            frameCompressor = compressor;
+        } finally {
+            lock.unlock();
+        }
+        if (frameCompressor != null) {
+            for (int i = compressFrom; i < batch.size(); i++) {
+                batch.set(i, frameCompressor.compress(batch.get(i)));
+            }
+        }
+        return count;
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return frames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe() {
+        lock.lock();
+        try {
+            String description = "%d frames (max %d), %d bytes (max %d)".formatted(frames.size(), highWaterFrames,
+                    bytes, highWaterBytes);
+            return compressor == null ? description : description + ", " + compressor.describe();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] skippedNotice() {
+        return new Frame(FrameType.EVENT, 0, SKIPPED_NOTICE.formatted(skipped))
+                .encode(legacyFrames > 0 ? Protocol.V1 : protocol);
+    }
+}
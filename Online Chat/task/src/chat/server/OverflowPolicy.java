@@ -0,0 +1,26 @@
+package chat.server;
+
+public enum OverflowPolicy {
+    DROP_OLDEST("drop-oldest"),
+    COALESCE("coalesce"),
+    DISCONNECT("disconnect");
+    private final String text;
+
+    OverflowPolicy(String text) {
+        this.text = text;
+    }
+
+    public static OverflowPolicy of(String text) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.text.equalsIgnoreCase(text.trim())) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown overflow policy: " + text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,107 @@
+package chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+// online users, the sorted name index may briefly lag the session map while a user joins or leaves
+public class Presence {
+    private final Map<User, Session> sessions = new ConcurrentHashMap<>();
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+    //users online on other nodes of a cluster, they have no session here and only show up in the names
+    private final Set<String> remote = ConcurrentHashMap.newKeySet();
+    private final LongAdder joins = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+
+    public void join(User user, Session session) {
+        if (sessions.put(user, session) == null) {
+            names.add(user.name());
+            joins.increment();
+        }
+    }
+
+    // only the session that is currently online for the user can take it offline
+    public boolean leave(User user, Session session) {
+        if (!sessions.remove(user, session)) {
+            return false;
+        }
+        names.remove(user.name());
+        leaves.increment();
+        return true;
+    }
+
+    public void joinRemote(String name) {
+        if (remote.add(name)) {
+            names.add(name);
+        }
+    }
+
+    public void leaveRemote(String name) {
+        if (remote.remove(name)) {
+            names.remove(name);
+        }
+    }
+
+    public void leaveRemote(Predicate<String> filter) {
+        for (String name : remote) {
+            if (filter.test(name)) {
+                leaveRemote(name);
+            }
+        }
+    }
+
+    public Session get(User user) {
+        return user == null ? null : sessions.get(user);
+    }
+
+    public boolean isOnline(User user) {
+        return user != null && sessions.containsKey(user);
+    }
+
+    // online here or on another node
+    public boolean isReachable(User user) {
+        return isOnline(user) || user != null && remote.contains(user.name());
+    }
+
+    public void forEach(BiConsumer<User, Session> action) {
+        sessions.forEach(action);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    // names starting with prefix in sorted order, strictly after the given name when it is not null
+    public List<String> list(String prefix, String after, int limit, String excluded) {
+        List<String> page = new ArrayList<>(Math.min(limit, 64));
+        String from = after != null && after.compareTo(prefix) >= 0 ? after : prefix;
+        for (String name : names.tailSet(from, after == null || !from.equals(after))) {
+            if (!name.startsWith(prefix) || page.size() == limit) {
+                break;
+            }
+            if (!name.equals(excluded)) {
+                page.add(name);
+            }
+        }
+        return page;
+    }
+
+    public long getJoins() {
+        return joins.sum();
+    }
+
+    public long getLeaves() {
+        return leaves.sum();
+    }
+
+    public String describe() {
+        return "online %d, remote %d, joins %d, leaves %d".formatted(size(), remote.size(), getJoins(), getLeaves());
+    }
+}
@@ -0,0 +1,34 @@
+package chat.server;
+
+// wire protocol of a connection, every connection starts with the legacy writeUTF framing
+public enum Protocol {
+    V1("1"),
+    V2("2");
+    private static final String ACKNOWLEDGEMENT = "Server: protocol %s";
+    private static final String COMPRESSED_ACKNOWLEDGEMENT = "Server: protocol %s %s";
+    private final String text;
+
+    Protocol(String text) {
+        this.text = text;
+    }
+
+    public static Protocol of(String text) {
+        for (Protocol protocol : values()) {
+            if (protocol.text.equalsIgnoreCase(text.trim())) {
+                return protocol;
+            }
+        }
+        throw new IllegalArgumentException("unknown protocol: " + text);
+    }
+
+    // the reply to /protocol, the last frame in the old framing
+    public String getAcknowledgement(Compression compression) {
+        return compression == Compression.NONE ? ACKNOWLEDGEMENT.formatted(text)
+                : COMPRESSED_ACKNOWLEDGEMENT.formatted(text, compression);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
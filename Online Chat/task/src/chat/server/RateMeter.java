@@ -0,0 +1,46 @@
+package chat.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// events per second over the last few whole seconds, kept in a small ring of one-second slots
+public class RateMeter {
+    private static final int SLOTS = 8;
+    private static final int WINDOW = 5;
+    private final AtomicLongArray seconds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+    private final LongAdder total = new LongAdder();
+
+    // the first event of a second claims its slot, an event racing that claim at the boundary may be lost
+    public void mark() {
+        total.increment();
+        long second = currentSecond();
+        int slot = Math.floorMod(second, SLOTS);
+        long claimed = seconds.get(slot);
+        if (claimed != second && seconds.compareAndSet(slot, claimed, second)) {
+            counts.set(slot, 0);
+        }
+        counts.incrementAndGet(slot);
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public double getRate() {
+        long second = currentSecond();
+        long events = 0;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long age = second - seconds.get(slot);
+            if (age >= 1 && age <= WINDOW) {
+                events += counts.get(slot);
+            }
+        }
+        return (double) events / WINDOW;
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
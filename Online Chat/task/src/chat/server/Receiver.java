@@ -3,22 +3,26 @@ package chat.server;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Receiver implements Runnable {
     private final Logger logger = Logger.getGlobal();
     private final Socket socket;
-    private final Deque<String> strings;
+    private final Session session;
+    private final FrameAssembler assembler;
+    private Protocol protocol = Protocol.V1;
 
-    public Receiver(Socket socket) {
+    public Receiver(Socket socket, Session session) {
         this.socket = socket;
-        this.strings = new ArrayDeque<>();
+        this.session = session;
+        this.assembler = FrameAssembler.fromProperties();
     }
 
-    public synchronized String readInput() {
-        return strings.pollFirst();
+    // called by the session while it handles an input, the next one is read in the new protocol
+    void upgrade(Protocol protocol) {
+        this.protocol = protocol;
     }
 
     @Override
@@ -26,13 +30,26 @@ public class Receiver implements Runnable {
         logger.info("receiver: start");
         try (DataInputStream dataInputStream = new DataInputStream(socket.getInputStream())) {
             while (!socket.isClosed()) {
-                String string = dataInputStream.readUTF();
-                strings.add(string);
+                if (protocol == Protocol.V1) {
+                    session.handleInput(dataInputStream.readUTF());
+                } else {
+                    readFrame(dataInputStream);
+                }
             }
         } catch (IOException e) {
             logger.warning("input stream error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            //the session still has to be stopped, or its user would stay online
+            logger.log(Level.WARNING, "session error, closing the connection", e);
         }
         logger.info("receiver: stop");
     }
-}
 
+    private void readFrame(DataInputStream dataInputStream) throws IOException {
+        byte[] body = new byte[Frames.readLength(dataInputStream)];
+        dataInputStream.readFully(body);
+        if (assembler.add(ByteBuffer.wrap(body), body.length)) {
+            session.handleFrame(assembler.getType(), assembler.getId(), assembler.takeText());
+        }
+    }
+}
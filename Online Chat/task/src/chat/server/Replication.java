@@ -0,0 +1,87 @@
+package chat.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+// the primary side of hot standbys: a standby says how much of the message journal it has, then it is sent the
+// registry, the journal past that offset and both as they are written; it acknowledges what it applied
+public class Replication {
+    static final int HELLO = 1;
+    static final int USERS = 2;
+    static final int MESSAGES = 3;
+    static final int HEARTBEAT = 4;
+    static final int ACK = 5;
+    static final int REJECT = 6;
+    static final long HEARTBEAT_MILLIS = 500;
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    private final int port;
+    private final Set<StandbyLink> standbys = ConcurrentHashMap.newKeySet();
+
+    @FunctionalInterface
+    interface RecordBody {
+        void write(BinaryWriter writer) throws IOException;
+    }
+
+    public Replication(Server server, int port) {
+        this.server = server;
+        this.port = port;
+    }
+
+    // chat.replication.port is where standbys connect, without it the server has none
+    public static Replication fromProperties(Server server) {
+        Integer port = Integer.getInteger("chat.replication.port");
+        return port == null ? null : new Replication(server, port);
+    }
+
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        startThread(() -> accept(serverSocket), "replication-accept");
+        logger.info("replication: waiting for standbys on port " + port);
+    }
+
+    static void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static byte[] encode(RecordBody body) {
+        BinaryWriter writer = new BinaryWriter();
+        try {
+            body.write(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toByteArray();
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                StandbyLink link = new StandbyLink(server, socket);
+                standbys.add(link);
+                startThread(() -> {
+                    link.run();
+                    standbys.remove(link);
+                }, "replication-sender");
+            } catch (IOException e) {
+                logger.warning("replication accepting error: " + e.getMessage());
+            }
+        }
+    }
+
+    public String describe() {
+        StringBuilder description = new StringBuilder("standbys %d".formatted(standbys.size()));
+        for (StandbyLink link : standbys) {
+            description.append("; ").append(link.describe());
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package chat.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// a live multi-member channel, members are the sessions currently inside it and nothing is persisted
+public class Room {
+    private final String name;
+    private final String prefix;
+    private final Set<Session> members = ConcurrentHashMap.newKeySet();
+    private final Lock lock = new ReentrantLock();
+    private long lastId;
+
+    public Room(String name) {
+        this.name = name;
+        this.prefix = "[" + name + "] ";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void add(Session session) {
+        members.add(session);
+    }
+
+    void remove(Session session) {
+        members.remove(session);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    // room messages are numbered from 1 for as long as the room exists; the number is taken and the frame queued
+    // for every member under one lock, so members always get them in order; the frame is shared, queues never
+    // modify it
+    public long post(String author, String text) {
+        lock.lock();
+        try {
+            Frame frame = new Frame(FrameType.CHAT, ++lastId, prefix, author, Message.SEPARATOR, text);
+            for (Session member : members) {
+                member.printFrame(frame);
+            }
+            return lastId;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
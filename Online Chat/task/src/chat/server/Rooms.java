@@ -0,0 +1,34 @@
+package chat.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Rooms {
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    // returns null if a room with this name already exists
+    public Room create(String name, Session creator) {
+        Room room = new Room(name);
+        room.add(creator);
+        return rooms.putIfAbsent(name, room) == null ? room : null;
+    }
+
+    // returns null if there is no such room, joining is atomic with the removal of an emptied room
+    public Room join(String name, Session session) {
+        return rooms.computeIfPresent(name, (key, room) -> {
+            room.add(session);
+            return room;
+        });
+    }
+
+    public void leave(Room room, Session session) {
+        rooms.computeIfPresent(room.getName(), (key, current) -> {
+            current.remove(session);
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+}
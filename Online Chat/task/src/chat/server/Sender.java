@@ -2,37 +2,70 @@ package chat.server;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
-public class Sender implements Runnable {
+public class Sender implements Runnable, Outbound {
     private final Logger logger = Logger.getGlobal();
     private final Socket socket;
-    private final Deque<String> strings;
+    private final OutboundQueue frames;
 
-    public Sender(Socket socket) {
+    public Sender(Socket socket, OutboundQueue frames) {
         this.socket = socket;
-        this.strings = new ArrayDeque<>();
+        this.frames = frames;
     }
 
-    public synchronized void printOutput(String string) {
-        strings.add(string);
+    @Override
+    public void printFrame(Frame frame) {
+        if (frames.offer(frame)) {
+            return;
+        }
+        disconnect();
+    }
+
+    @Override
+    public void upgrade(Protocol protocol, Compression compression, Frame acknowledgement) {
+        if (!frames.upgrade(protocol, compression, acknowledgement)) {
+            disconnect();
+        }
+    }
+
+    private void disconnect() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.warning("output error: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public OutboundQueue getQueue() {
+        return frames;
+    }
+
+    public void stop() {
+        frames.close();
     }
 
     @Override
     public void run() {
         logger.info("sender: start");
-        try (DataOutputStream dataOutputStream = new DataOutputStream(socket.getOutputStream())) {
-            while (!socket.isClosed()) {
-                String string = strings.pollFirst();
-                if (string == null) {
-                    continue;
+        List<byte[]> batch = new ArrayList<>();
+        try (OutputStream outputStream = new BufferedOutputStream(socket.getOutputStream())) {
+            while (!socket.isClosed() && frames.awaitFrames()) {
+                frames.drainTo(batch);
+                for (byte[] frame : batch) {
+                    outputStream.write(frame);
                 }
-                dataOutputStream.writeUTF(string);
+                outputStream.flush();
+                batch.clear();
             }
         } catch (IOException e) {
             logger.warning("output stream error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.warning("interrupted while sending: " + e.getMessage());
+            Thread.currentThread().interrupt();
         }
         logger.info("sender: stop");
     }
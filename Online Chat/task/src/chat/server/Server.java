@@ -1,66 +1,200 @@
 package chat.server;
 
 import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Server {
     private static final int CONNECTION_TIMEOUT = 1000;
-    private static final Path userDbPath = Path.of("usersdb.txt");
+    private static final int SERVER_PORT = 5578;
+    private static final Path userDbPath = Path.of("users.db");
+    private static final Path legacyUserDbPath = Path.of("usersdb.txt");
+    private static final Path userJournalPath = Path.of("users.journal");
     private static final Path messageDbPath = Path.of("messagedb.txt");
+    private static final Path messageJournalPath = Path.of("messages.journal");
+    private static final String STANDBY_ARCHIVE = ".before-standby";
     private final Logger logger = Logger.getGlobal();
     int port;
-    private final Map<User, Session> onlineSessions;
+    private final ServerMode mode;
+    private final Presence presence = new Presence();
+    private final Rooms rooms = new Rooms();
+    private Method virtualExecutorFactory;
+    private ExecutorService sessionExecutor;
+    private UserJournal userJournal;
     private UsersCollection registeredUsers;
     private ChatsCollection openedChats;
-    public Server(int port) {
+    private MessageJournal messageJournal;
+    private final ChatCache chatCache = ChatCache.fromProperties();
+    private Cluster cluster;
+    private Replication replication;
+    private Standby standby;
+    private final Metrics metrics = new Metrics(this);
+
+    public Server(int port, ServerMode mode) {
         this.port = port;
-        onlineSessions = new HashMap<>();
+        this.mode = mode;
+    }
+
+    // an in-memory server for the benchmarks and tests: sessions log in and chat without any journal, run() is
+    // never called
+    Server(int port, ServerMode mode, UsersCollection users, ChatsCollection chats) {
+        this(port, mode);
+        registeredUsers = users;
+        openedChats = chats;
     }
 
-    public Map<User, Session> getOnlineSessions() {
-        return onlineSessions;
+    public Presence getPresence() {
+        return presence;
     }
 
     public UsersCollection getRegisteredUsers() {
         return registeredUsers;
     }
 
+    public Rooms getRooms() {
+        return rooms;
+    }
+
     public ChatsCollection getOpenedChats() {
         return openedChats;
     }
 
+    UserJournal getUserJournal() {
+        return userJournal;
+    }
+
+    MessageJournal getMessageJournal() {
+        return messageJournal;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     public static void main(String[] args) {
-        new Server(3128).run();
+        ServerMode mode = args.length > 0 ? ServerMode.of(args[0]) : ServerMode.THREADS;
+        new Server(Integer.getInteger("chat.port", SERVER_PORT), mode).run();
     }
 
     private void run() {
+        if (mode == ServerMode.VIRTUAL) {
+            virtualExecutorFactory = findVirtualExecutorFactory();
+        }
         logger.setLevel(Level.INFO);
-        logger.info("server: started");
+        logger.log(Level.INFO, "server: started in {0} mode", mode);
         System.out.println("Server started!");
+        metrics.register();
+        standby = Standby.fromProperties(this);
+        if (standby != null) {
+            archiveData();
+        }
         registeredUsers = loadRegisteredUsers();
-        addNewUser(new User("admin", "12345678".hashCode()));
+        //a standby gets the admin with the rest of the registry, so it keeps the primary's user ids
+        if (standby == null) {
+            addNewUser(new User("admin", "12345678".hashCode()));
+        }
         openedChats = loadMessages();
-        try (ServerSocket serverSocket = new ServerSocket(5578)) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            messageJournal.close();
+            messageJournal.writeIndex(openedChats);
+            userJournal.close();
+            logger.info("chat cache: " + chatCache.describe());
+            logger.info("presence: " + presence.describe());
+            if (cluster != null) {
+                logger.info("cluster: " + cluster.describe());
+                cluster.stop();
+            }
+            if (replication != null) {
+                logger.info("replication: " + replication.describe());
+            }
+            if (standby != null) {
+                logger.info("standby: " + standby.describe());
+            }
+        }));
+        if (standby != null) {
+            if (!standby.follow()) {
+                messageJournal.close();
+                return;
+            }
+            addNewUser(new User("admin", "12345678".hashCode()));
+        }
+        startCluster();
+        startReplication();
+        switch (mode) {
+            case THREADS -> runThreads();
+            case VIRTUAL -> {
+                sessionExecutor = newSessionExecutor(0);
+                runThreads();
+                sessionExecutor.shutdownNow();
+            }
+            case NIO -> runEventLoops();
+        }
+        logger.info("server: stop");
+    }
+
+    private void runThreads() {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
             serverSocket.setSoTimeout(CONNECTION_TIMEOUT);
             acceptClients(serverSocket);
         } catch (IOException e) {
             logger.warning("socket error " + e.getMessage());
         }
-        logger.info("server: stop");
+    }
+
+    private void runEventLoops() {
+        EventLoop[] loops = new EventLoop[Runtime.getRuntime().availableProcessors()];
+        List<Thread> threads = new ArrayList<>();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(this);
+                Thread thread = new Thread(loops[i], "event-loop-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            acceptChannels(serverChannel, loops);
+        } catch (IOException e) {
+            logger.warning("socket error " + e.getMessage());
+        }
+        threads.forEach(Thread::interrupt);
+    }
+
+    private void acceptChannels(ServerSocketChannel serverChannel, EventLoop[] loops) {
+        int next = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                metrics.connectionAccepted();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedByInterruptException e) {
+                break;
+            } catch (IOException e) {
+                logger.warning("accepting error: " + e.getMessage());
+            }
+        }
+        logger.info("stop accepting");
     }
 
     private void acceptClients(ServerSocket serverSocket) {
         while (!Thread.currentThread().isInterrupted()) {
             try {
                 Socket socket = serverSocket.accept();
+                metrics.connectionAccepted();
                 startSession(socket);
             } catch (SocketTimeoutException e) {
                 if (Thread.currentThread().isInterrupted()) {
@@ -75,76 +209,182 @@ public class Server {
 
     private void startSession(Socket socket) {
         Session session = new Session(socket, this);
-        new Thread(session).start();
+        if (mode == ServerMode.VIRTUAL) {
+            sessionExecutor.execute(session);
+        } else {
+            new Thread(session).start();
+        }
+    }
+
+    ExecutorService newSessionExecutor(int threads) {
+        if (mode != ServerMode.VIRTUAL) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        try {
+            return (ExecutorService) virtualExecutorFactory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("virtual executor error: " + e.getMessage(), e);
+        }
+    }
+
+    // the sources build on Java 17, so the factory is looked up when the server starts; virtual mode on an older
+    // runtime refuses to start instead of running every session on a platform thread
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("virtual mode needs virtual threads, Java 21 or later, this is Java "
+                    + Runtime.version().feature());
+        }
     }
 
     private UsersCollection loadRegisteredUsers() {
-        UsersCollection users = new UsersCollection();
-        if (Files.exists(userDbPath)) {
-            try (InputStream inputStream = Files.newInputStream(userDbPath);
-                 ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
-                users = (UsersCollection) objectInputStream.readObject();
-            } catch (IOException e) {
-                logger.warning("error users loading: " + e.getMessage());
-            } catch (ClassNotFoundException e) {
-                logger.warning("deserialization error: " + e.getMessage());
-            }
-        } else {
+        userJournal = UserJournal.fromProperties(userJournalPath, userDbPath, legacyUserDbPath);
+        UsersCollection users = userJournal.load();
+        try {
+            userJournal.open();
+        } catch (IOException e) {
+            logger.warning("error opening users journal: " + e.getMessage());
+        }
+        return users;
+    }
+
+    private void startCluster() {
+        cluster = Cluster.fromProperties(this);
+        if (cluster == null) {
+            return;
+        }
+        port = cluster.getClientPort();
+        try {
+            cluster.start();
+        } catch (IOException e) {
+            logger.warning("error starting cluster: " + e.getMessage());
+        }
+    }
+
+    private void startReplication() {
+        replication = Replication.fromProperties(this);
+        if (replication == null) {
+            return;
+        }
+        try {
+            replication.start();
+        } catch (IOException e) {
+            logger.warning("error starting replication: " + e.getMessage());
+        }
+    }
+
+    // a standby starts from an empty state and copies everything from its primary,
+    // whatever an earlier run left behind is moved aside
+    private void archiveData() {
+        for (Path path : List.of(userDbPath, legacyUserDbPath, userJournalPath, messageDbPath, messageJournalPath)) {
             try {
-                Files.createFile(userDbPath);
+                if (Files.exists(path)) {
+                    Files.move(path, path.resolveSibling(path.getFileName() + STANDBY_ARCHIVE),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
             } catch (IOException e) {
-                logger.warning("error making new user DB file:" + e.getMessage());
+                logger.warning("error archiving " + path + ": " + e.getMessage());
             }
         }
-        logger.info("userdb loaded");
-        return users;
     }
 
-    public synchronized void addNewUser(User user) {
-        registeredUsers.addUser(user);
-        logger.info("user added");
-        saveUsers();
+    // in a cluster a user can only log in on the node that owns it
+    public boolean isLocalUser(String name) {
+        return cluster == null || cluster.isLocal(name);
     }
 
-    public void saveUsers() {
-        try (OutputStream outputStream = Files.newOutputStream(userDbPath, StandardOpenOption.TRUNCATE_EXISTING);
-             ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
-            objectOutputStream.writeObject(registeredUsers);
-        } catch (IOException e) {
-            logger.warning("error users writing: " + e.getMessage());
+    public String getNodeAddress(String name) {
+        return cluster == null ? "" : cluster.getAddress(name);
+    }
+
+    public boolean addNewUser(User user) {
+        boolean added = userJournal.register(user);
+        if (added) {
+            logger.info("user added");
+            if (cluster != null) {
+                cluster.publishUser(user);
+            }
+        }
+        return added;
+    }
+
+    public void grantModerator(User user) {
+        userJournal.grant(user);
+        if (cluster != null) {
+            cluster.publishGrant(user);
         }
-        logger.info("users saved");
+    }
+
+    public void revokeModerator(User user) {
+        userJournal.revoke(user);
+        if (cluster != null) {
+            cluster.publishRevoke(user);
+        }
+    }
+
+    public void banUser(User user) {
+        userJournal.ban(user);
+        if (cluster != null) {
+            cluster.publishBan(user);
+        }
+    }
+
+    public void announcePresence(User user, boolean online) {
+        if (cluster != null) {
+            cluster.publishPresence(user, online);
+        }
+    }
+
+    // the message goes to the recipient's node if that is another one, false if that node could not take it
+    public boolean forwardMessage(User recipient, Message message) {
+        return cluster == null || cluster.isLocal(recipient.name()) || cluster.forwardMessage(recipient, message);
+    }
+
+    public void forwardNotice(User recipient, String text) {
+        if (cluster != null && !cluster.isLocal(recipient.name()) && !cluster.forwardNotice(recipient, text)) {
+            logger.warning("cluster notice for " + recipient.name() + " not delivered, its node is not reachable");
+        }
+    }
+
+    // false if a node that is down for too long did not get the broadcast
+    public boolean forwardBroadcast(User author, String text) {
+        return cluster == null || cluster.publishBroadcast(author, text);
     }
 
     private ChatsCollection loadMessages() {
+        messageJournal = MessageJournal.fromProperties(messageJournalPath, registeredUsers);
+        ChatsCollection chats = messageJournal.exists() ? messageJournal.replay() : loadLegacyMessages();
+        boolean rewrite = !messageJournal.isCurrentFormat();
+        try {
+            messageJournal.open();
+        } catch (IOException e) {
+            logger.warning("error opening message journal: " + e.getMessage());
+        }
+        chats.setStorage(messageJournal, chatCache);
+        messageJournal.keepIndex(chats, Long.getLong("chat.journal.index.bytes", 16L << 20));
+        if (rewrite) {
+            chats.getAllChats().forEach(chat -> {
+                chat.writeTo(messageJournal);
+                chat.unload();
+            });
+        }
+        logger.info("messages loaded");
+        return chats;
+    }
+
+    private ChatsCollection loadLegacyMessages() {
         ChatsCollection chats = new ChatsCollection();
         if (Files.exists(messageDbPath)) {
             try (InputStream inputStream = Files.newInputStream(messageDbPath);
-                 ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+                 ObjectInputStream objectInputStream = new LegacyObjectInputStream(inputStream)) {
                 chats = (ChatsCollection) objectInputStream.readObject();
             } catch (IOException e) {
                 logger.warning("error messages loading: " + e.getMessage());
             } catch (ClassNotFoundException e) {
                 logger.warning("deserialization error: " + e.getMessage());
             }
-        } else {
-            try {
-                Files.createFile(messageDbPath);
-            } catch (IOException e) {
-                logger.warning("error making new message DB file: " + e.getMessage());
-            }
         }
-        logger.info("messages loaded");
         return chats;
     }
-
-    public void saveMessages() {
-        try (OutputStream outputStream = Files.newOutputStream(messageDbPath, StandardOpenOption.TRUNCATE_EXISTING);
-             ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
-            objectOutputStream.writeObject(openedChats);
-        } catch (IOException e) {
-            logger.warning("error messages writing: " + e.getMessage());
-        }
-        logger.info("messages saved");
-    }
 }
@@ -0,0 +1,26 @@
+package chat.server;
+
+public enum ServerMode {
+    THREADS("threads"),
+    NIO("nio"),
+    VIRTUAL("virtual");
+    private final String text;
+
+    ServerMode(String text) {
+        this.text = text;
+    }
+
+    public static ServerMode of(String text) {
+        for (ServerMode mode : values()) {
+            if (mode.text.equalsIgnoreCase(text.trim())) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("unknown server mode: " + text);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
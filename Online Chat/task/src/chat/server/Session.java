@@ -1,9 +1,12 @@
 package chat.server;
 
 import java.net.Socket;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -14,15 +17,22 @@ public class Session implements Runnable {
     private static final String PASSWORD_INCORRECT = "incorrect password!";
     private static final String USER_BANNED = "you are banned!";
     private static final String AUTHORIZATION_OK = "you are authorized successfully!";
+    private static final String OTHER_NODE = "this user is served by %s, connect there!";
     //registration replies:
     private static final String NAME_EXISTS = "this login is already taken! Choose another one.";
     private static final String PASSWORD_IS_SHORT = "the password is too short!";
     private static final String REGISTRATION_OK = "you are registered successfully!";
     //chat command replies:
     private static final String NOT_ONLINE = "the user is not online!";
+    private static final String NOT_DELIVERED = "the node of %s is not reachable, the message was not delivered!";
+    private static final String BROADCAST_INCOMPLETE = "some nodes are not reachable, the broadcast did not reach them!";
     private static final String NOT_YOURSELF = "you can't chat with yourself!";
     //list command replies:
     private static final String ONLINE_NONE = "no one online";
+    private static final String ONLINE_MORE = " ... (/list more)";
+    private static final String NO_MORE_ONLINE = "no more users online";
+    private static final String LIST_MORE = "more";
+    private static final int LIST_PAGE = Integer.getInteger("chat.list.page", 50);
     //kick replies:
     private static final String KICK_YOURSELF = "you can't kick yourself!";
     private static final String USER_KICKED = "%s was kicked!";
@@ -40,106 +50,233 @@ public class Session implements Runnable {
     //unread replies:
     private static final String NO_UNREAD = "no one unread";
     //stats replies:
+    //room replies:
+    private static final String ROOM_EXISTS = "room %s already exists!";
+    private static final String ROOM_UNKNOWN = "no such room!";
+    private static final String ROOM_JOINED = "you joined %s, members: %d";
+    private static final String ROOM_LEFT = "you left %s";
+    private static final String NOT_IN_ROOM = "you are not in a room!";
+    private static final String MESSAGE_TOO_LONG = "the message is too long!";
+    private static final String BROADCAST_SEPARATOR = " (broadcast): ";
+    //protocol replies:
+    private static final String PROTOCOL_UNKNOWN = "unsupported protocol!";
+    private static final String PROTOCOL_DOWNGRADE = "the protocol can't be downgraded!";
+    private static final String COMPRESSION_UNKNOWN = "unsupported compression!";
     //history replies:
+    private static final String HISTORY_OLDER = "older";
+    private static final String HISTORY_NEWER = "newer";
+    private static final String HISTORY_RANGE = "messages %d-%d of %d";
+    private static final String HISTORY_EMPTY = "no messages in this range, the chat has %d";
+    private static final String NO_OLDER_MESSAGES = "no older messages";
+    private static final String NO_NEWER_MESSAGES = "no newer messages";
+    private static final int HISTORY_PAGE = 25;
     private static final String ERROR_PARAMETERS_COUNT = "Wrong parameters count, try again.";
     private static final String NOT_LOGGED_IN = "you are not in the chat!";
     private static final String CHOOSE_USER_TO_CHAT = "use /list command to choose a user to text!";
     private static final String COMMAND_INCORRECT = "incorrect command!";
     private static final String AUTHORIZATION_REQUEST = "authorize or register";
     private static final String ADMIN = "admin";
+    private static final String SERVER_PREFIX = "Server: ";
+    private static final String[] NO_PARAMETERS = {""};
+    private static final int CLOSE_TIMEOUT = 1000;
     private final Logger logger = Logger.getGlobal();
     private final Server server;
+    private final Outbound outbound;
     private final Sender sender;
     private final Receiver receiver;
     private User owner;
-    private Chat activeChat;
+    //read by the sessions delivering to this one
+    private volatile Chat activeChat;
+    private Room activeRoom;
+    private HistoryPage historyCursor;
+    private String listPrefix = "";
+    private String listCursor;
+    private Protocol protocol = Protocol.V1;
+    //the v2 request id of the input being handled, replies are tagged with it
+    private long requestId;
 
     public Session(Socket socket, Server server) {
         this.server = server;
-        this.sender = new Sender(socket);
-        this.receiver = new Receiver(socket);
+        this.sender = new Sender(socket, OutboundQueue.fromProperties());
+        this.receiver = new Receiver(socket, this);
+        this.outbound = sender;
+        this.activeChat = null;
+    }
+
+    public Session(Outbound outbound, Server server) {
+        this.server = server;
+        this.sender = null;
+        this.receiver = null;
+        this.outbound = outbound;
         this.activeChat = null;
     }
 
     @Override
     public void run() {
         logger.log(Level.INFO, "Session \"{0}\": start", owner);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        ExecutorService executorService = server.newSessionExecutor(1);
         executorService.execute(sender);
-        executorService.execute(receiver);
         executorService.shutdown();
-        printServerMessage(AUTHORIZATION_REQUEST);
+        open();
+        receiver.run();
+        sender.stop();
         try {
-            while (!executorService.awaitTermination(10, TimeUnit.MILLISECONDS)) {
-                readMessage();
+            if (!executorService.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                executorService.shutdownNow();
             }
         } catch (InterruptedException e) {
-            logger.warning("interrupted while listening: " + e.getMessage());
+            logger.warning("interrupted while closing: " + e.getMessage());
             Thread.currentThread().interrupt();
         }
         stopSession();
     }
 
+    void open() {
+        printEvent(AUTHORIZATION_REQUEST);
+    }
+
     public void printServerMessage(String text) {
-        printMessage(new Message(new User("Server", 0), text));
+        outbound.printFrame(new Frame(FrameType.REPLY, requestId, SERVER_PREFIX, text));
+    }
+
+    private void printReply(String text) {
+        outbound.printFrame(new Frame(FrameType.REPLY, requestId, text));
+    }
+
+    // server notices that are not an answer to an input of this session
+    void printEvent(String text) {
+        outbound.printFrame(new Frame(FrameType.EVENT, 0, SERVER_PREFIX, text));
     }
 
-    private synchronized void printMessage(Message message) {
-        sender.printOutput(message.toString());
+    void handleInput(String inputString) {
+        logger.log(Level.FINE, "input: {0}", inputString);
+        parseInput(inputString);
     }
 
-    private void readMessage() {
-        String inputString = receiver.readInput();
-        if (inputString == null) {
+    // a v2 chat frame is always sent as a message, even when it starts with a slash
+    void handleFrame(FrameType type, long id, String text) {
+        logger.log(Level.FINE, "frame: {0}", id);
+        requestId = id;
+        if (text == null) {
+            printServerMessage(MESSAGE_TOO_LONG);
             return;
         }
-        logger.log(Level.INFO, "input: {0}", inputString);
-        parseInput(inputString);
+        switch (type) {
+            case CHAT -> sendText(text);
+            case COMMAND -> {
+                int start = skipWhitespace(text, 0);
+                if (start == text.length() || text.charAt(start) != '/') {
+                    printServerMessage(COMMAND_INCORRECT);
+                } else {
+                    parseCommand(text, start);
+                }
+            }
+            default -> logger.warning("unexpected frame from the client: " + type);
+        }
     }
 
+    // plain text takes the first branch without any parsing allocation
     private void parseInput(String inputString) {
-        CommandList command = parseCommand(inputString);
-        logger.log(Level.INFO, "parse command: {0}", command);
-        if (command != null) {
-            logger.log(Level.INFO, "execute command: {0}", command);
-            executeCommand(command, inputString);
+        int start = skipWhitespace(inputString, 0);
+        if (start == inputString.length() || inputString.charAt(start) != '/') {
+            sendText(inputString);
             return;
         }
+        parseCommand(inputString, start);
+    }
+
+    private void parseCommand(String inputString, int start) {
+        int end = skipWord(inputString, start);
+        CommandList command = CommandList.of(inputString, start, end);
+        logger.log(Level.FINE, "execute command: {0}", command);
+        long started = System.nanoTime();
+        executeCommand(command, inputString, end);
+        server.getMetrics().recordCommand(command, System.nanoTime() - started);
+    }
+
+    private void sendText(String inputString) {
         if (!isLoggedIn()) {
             printServerMessage(NOT_LOGGED_IN);
             return;
         }
-        if (activeChat == null) {
+        if (activeRoom != null) {
+            sendToRoom(inputString);
+        } else if (activeChat == null) {
             printServerMessage(CHOOSE_USER_TO_CHAT);
         } else {
-            logger.info("sending message to addressee");
+            long started = System.nanoTime();
             Message message = new Message(owner, inputString);
-            activeChat.sendMessage(message);
+            Frame frame = message.toFrame("", activeChat.sendMessage(message));
             for (User user : activeChat.getUsers()) {
-                if (server.getOnlineSessions().containsKey(user)) {
-                    Session session = server.getOnlineSessions().get(user);
-                    if (activeChat.equals(session.activeChat)) {
-                        session.printMessage(activeChat.readMessage(user));
-                    }
+                Session session = server.getPresence().get(user);
+                if (session != null) {
+                    session.deliver(activeChat, frame);
+                } else if (!server.forwardMessage(user, message)) {
+                    printServerMessage(NOT_DELIVERED.formatted(user.name()));
                 }
             }
+            server.getMetrics().recordFanOut(System.nanoTime() - started);
         }
     }
 
-    private CommandList parseCommand(String string) {
-        if (!string.trim().startsWith("/")) {
-            return null;
+    private void sendToRoom(String text) {
+        long started = System.nanoTime();
+        activeRoom.post(owner.name(), text);
+        server.getMetrics().recordFanOut(System.nanoTime() - started);
+    }
+
+    void printFrame(Frame frame) {
+        outbound.printFrame(frame);
+    }
+
+    int getQueueDepth() {
+        return outbound.getQueue().getDepth();
+    }
+
+    // a new message of the chat, shown and marked read only while the chat is open
+    void deliver(Chat chat, Frame frame) {
+        if (chat.equals(activeChat)) {
+            chat.markDelivered(owner, (int) frame.getId());
+            printFrame(frame);
         }
-        for (CommandList command : CommandList.values()) {
-            if (string.trim().startsWith(command.toString())) {
-                return command;
-            }
+    }
+
+    // whitespace is anything trim() would drop
+    static int skipWhitespace(String line, int from) {
+        while (from < line.length() && line.charAt(from) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    static int skipWord(String line, int from) {
+        while (from < line.length() && line.charAt(from) > ' ') {
+            from++;
         }
-        return CommandList.UNKNOWN;
+        return from;
     }
 
-    private void executeCommand(CommandList command, String message) {
-        String[] parameters = message.replaceFirst(command.toString(), "").trim().split("\\s+");
+    // the words after the command, a command without any yields one empty parameter
+    static String[] splitParameters(String line, int from) {
+        int count = 0;
+        for (int i = skipWhitespace(line, from); i < line.length(); i = skipWhitespace(line, skipWord(line, i))) {
+            count++;
+        }
+        if (count == 0) {
+            return NO_PARAMETERS;
+        }
+        String[] parameters = new String[count];
+        int index = 0;
+        for (int i = skipWhitespace(line, from); i < line.length(); i = skipWhitespace(line, i)) {
+            int end = skipWord(line, i);
+            parameters[index++] = line.substring(i, end);
+            i = end;
+        }
+        return parameters;
+    }
+
+    private void executeCommand(CommandList command, String message, int argumentsStart) {
+        String[] parameters = splitParameters(message, argumentsStart);
         if (isLoggedIn()) {
             switch (command) {
                 case STATS -> printStatistics();
@@ -149,7 +286,14 @@ public class Session implements Runnable {
                 case GRANT -> grantUser(parameters);
                 case KICK -> kickUser(parameters);
                 case CHAT -> openChat(parameters);
-                case LIST -> listOnlineUsers();
+                case LIST -> listOnlineUsers(parameters);
+                case QUEUES -> listQueues();
+                case METRICS -> printMetrics();
+                case CREATE -> createRoom(parameters);
+                case JOIN -> joinRoom(parameters);
+                case LEAVE -> leaveRoom();
+                case BROADCAST -> broadcast(message.substring(skipWhitespace(message, argumentsStart)).trim());
+                case PROTOCOL -> switchProtocol(parameters);
                 case EXIT -> exit();
                 default -> printServerMessage(COMMAND_INCORRECT);
             }
@@ -157,6 +301,7 @@ public class Session implements Runnable {
             switch (command) {
                 case AUTH -> authorise(parameters);
                 case REGISTRATION -> registration(parameters);
+                case PROTOCOL -> switchProtocol(parameters);
                 case UNKNOWN -> printServerMessage(COMMAND_INCORRECT);
                 default -> printServerMessage(NOT_LOGGED_IN);
             }
@@ -164,35 +309,103 @@ public class Session implements Runnable {
     }
 
     private void printStatistics() {
+        if (activeChat == null) {
+            printServerMessage(CHOOSE_USER_TO_CHAT);
+            return;
+        }
         Iterator<User> iterator = activeChat.getUsers().iterator();
         User user = iterator.next();
         if (user == owner) {
             user = iterator.next();
         }
-        sender.printOutput("""
+        ChatStats stats = activeChat.getStats();
+        printReply("""
                 Server:
                 Statistics with %s:
                 Total messages: %d
                 Messages from %s: %d
                 Messages from %s: %d
+                Total bytes: %d
+                Bytes from %s: %d
+                Bytes from %s: %d
+                First message: %s
+                Last message: %s
                 """.formatted(user.name(),
-                activeChat.countMessages(null),
-                owner.name(), activeChat.countMessages(owner),
-                user.name(), activeChat.countMessages(user)));
+                stats.getMessages(),
+                owner.name(), stats.getMessages(owner),
+                user.name(), stats.getMessages(user),
+                stats.getBytes(),
+                owner.name(), stats.getBytes(owner),
+                user.name(), stats.getBytes(user),
+                formatTime(stats.getFirstTime()), formatTime(stats.getLastTime())));
+    }
+
+    private static String formatTime(long time) {
+        if (time == 0) {
+            return "unknown";
+        }
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault())
+                .truncatedTo(ChronoUnit.SECONDS)
+                .toString();
     }
     private void history(String[] parameters) {
-        if (parameters.length != 1) {
+        if (parameters.length != 1 && parameters.length != 2) {
             printServerMessage(ERROR_PARAMETERS_COUNT);
             return;
         }
-        try {
-            int index = Integer.parseInt(parameters[0]);
-            sender.printOutput("Server:");
-            activeChat.getHistory(index).forEach(sender::printOutput);
-        } catch (NumberFormatException e) {
-            printServerMessage("%s is not a number!".formatted(parameters[0]));
+        if (activeChat == null) {
+            printServerMessage(CHOOSE_USER_TO_CHAT);
+            return;
+        }
+        if (parameters.length == 1 && (parameters[0].equals(HISTORY_OLDER) || parameters[0].equals(HISTORY_NEWER))) {
+            continueHistory(parameters[0].equals(HISTORY_OLDER));
+            return;
+        }
+        int[] numbers = new int[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            try {
+                numbers[i] = Integer.parseInt(parameters[i]);
+            } catch (NumberFormatException e) {
+                printServerMessage("%s is not a number!".formatted(parameters[i]));
+                return;
+            }
+        }
+        if (parameters.length == 1) {
+            historyCursor = activeChat.getHistory(numbers[0]);
+            printReply("Server:");
+            historyCursor.frames().forEach(outbound::printFrame);
+            return;
+        }
+        printHistoryPage(activeChat.getHistoryPage(numbers[0], numbers[1]));
+    }
+
+    private void continueHistory(boolean older) {
+        HistoryPage page;
+        if (historyCursor == null) {
+            page = activeChat.getHistory(HISTORY_PAGE);
+        } else if (older) {
+            int from = Math.max(1, historyCursor.first() - HISTORY_PAGE);
+            page = activeChat.getHistoryPage(from, historyCursor.first() - from);
+        } else {
+            page = activeChat.getHistoryPage(historyCursor.last() + 1, HISTORY_PAGE);
         }
+        if (page.isEmpty()) {
+            printServerMessage(older ? NO_OLDER_MESSAGES : NO_NEWER_MESSAGES);
+            return;
+        }
+        printHistoryPage(page);
     }
+
+    private void printHistoryPage(HistoryPage page) {
+        historyCursor = page;
+        if (page.isEmpty()) {
+            printServerMessage(HISTORY_EMPTY.formatted(page.total()));
+            return;
+        }
+        printServerMessage(HISTORY_RANGE.formatted(page.first(), page.last(), page.total()));
+        page.frames().forEach(outbound::printFrame);
+    }
+
     private void revokeUser(String[] parameters) {
         if (parameters.length != 1) {
             printServerMessage(ERROR_PARAMETERS_COUNT);
@@ -207,8 +420,8 @@ public class Session implements Runnable {
             printServerMessage(USER_NOT_MODERATOR);
             return;
         }
-        server.getRegisteredUsers().revoke(targetUser);
-        server.getOnlineSessions().get(targetUser).printServerMessage(REVOKE_MESSAGE);
+        server.revokeModerator(targetUser);
+        notifyUser(targetUser, REVOKE_MESSAGE);
         printServerMessage(USER_NO_MODERATOR.formatted(targetUser.name()));
     }
 
@@ -226,8 +439,8 @@ public class Session implements Runnable {
             printServerMessage(USER_ALREADY_MODERATOR);
             return;
         }
-        server.getRegisteredUsers().grant(targetUser);
-        server.getOnlineSessions().get(targetUser).printServerMessage(GRANT_MESSAGE);
+        server.grantModerator(targetUser);
+        notifyUser(targetUser, GRANT_MESSAGE);
         printServerMessage(USER_NEW_MODERATOR.formatted(targetUser.name()));
     }
 
@@ -255,9 +468,17 @@ public class Session implements Runnable {
             printServerMessage(KICK_YOURSELF);
             return;
         }
-        server.getOnlineSessions().get(targetUser).printServerMessage(KICK_MESSAGE);
-        server.getOnlineSessions().remove(targetUser);
-        server.getRegisteredUsers().ban(targetUser);
+        Session targetSession = server.getPresence().get(targetUser);
+        if (targetSession != null) {
+            targetSession.printEvent(KICK_MESSAGE);
+            if (server.getPresence().leave(targetUser, targetSession)) {
+                server.announcePresence(targetUser, false);
+            }
+        } else {
+            //the node of the user takes it offline when the ban arrives
+            server.forwardNotice(targetUser, KICK_MESSAGE);
+        }
+        server.banUser(targetUser);
         printServerMessage(USER_KICKED.formatted(targetUser.name()));
     }
 
@@ -269,6 +490,10 @@ public class Session implements Runnable {
         }
         logger.info("authorisation routine");
         String login = parameters[0].trim();
+        if (!server.isLocalUser(login)) {
+            printServerMessage(OTHER_NODE.formatted(server.getNodeAddress(login)));
+            return;
+        }
         User user = server.getRegisteredUsers().getUser(login);
         if (user == null) {
             printServerMessage(LOGIN_INCORRECT);
@@ -284,7 +509,8 @@ public class Session implements Runnable {
             return;
         }
         owner = user;
-        server.getOnlineSessions().put(owner, this);
+        server.getPresence().join(owner, this);
+        server.announcePresence(owner, true);
         printServerMessage(AUTHORIZATION_OK);
         logger.info("authorization success");
     }
@@ -296,6 +522,10 @@ public class Session implements Runnable {
         }
         logger.info("registration routine");
         String login = parameters[0].trim();
+        if (!server.isLocalUser(login)) {
+            printServerMessage(OTHER_NODE.formatted(server.getNodeAddress(login)));
+            return;
+        }
         if (server.getRegisteredUsers().isRegistered(login)) {
             printServerMessage(NAME_EXISTS);
             return;
@@ -306,9 +536,13 @@ public class Session implements Runnable {
             return;
         }
         User newUser = new User(login, password.hashCode());
+        if (!server.addNewUser(newUser)) {
+            printServerMessage(NAME_EXISTS);
+            return;
+        }
         owner = newUser;
-        server.addNewUser(newUser);
-        server.getOnlineSessions().put(newUser, this);
+        server.getPresence().join(newUser, this);
+        server.announcePresence(newUser, true);
         printServerMessage(REGISTRATION_OK);
         logger.info("registration success");
     }
@@ -327,36 +561,81 @@ public class Session implements Runnable {
             printServerMessage(NOT_ONLINE);
             return;
         }
-        Session chatSession = server.getOnlineSessions().get(targetUser);
-        if (chatSession == null) {
+        if (!server.getPresence().isReachable(targetUser)) {
             printServerMessage(NOT_ONLINE);
             return;
         }
+        exitRoom();
+        leaveChat();
         activeChat = server.getOpenedChats().getChat(Set.of(owner, targetUser));
+        historyCursor = null;
         sendNewMessages();
     }
 
     private void sendNewMessages() {
-        activeChat.getLastMessages(owner).forEach(sender::printOutput);
+        activeChat.getLastMessages(owner).forEach(outbound::printFrame);
     }
     
-    private void listOnlineUsers() {
-        List<String> userNames = new ArrayList<>();
-        server.getOnlineSessions().keySet().forEach(user -> userNames.add(user.name()));
-        userNames.remove(owner.name());
+    // /list [prefix] pages through the sorted names, /list more continues after the last page
+    private void listOnlineUsers(String[] parameters) {
+        if (parameters.length > 1) {
+            printServerMessage(ERROR_PARAMETERS_COUNT);
+            return;
+        }
+        String after = null;
+        if (parameters[0].equals(LIST_MORE)) {
+            if (listCursor == null) {
+                printServerMessage(NO_MORE_ONLINE);
+                return;
+            }
+            after = listCursor;
+        } else {
+            listPrefix = parameters[0];
+        }
+        List<String> userNames = server.getPresence().list(listPrefix, after, LIST_PAGE + 1, owner.name());
+        boolean more = userNames.size() > LIST_PAGE;
+        if (more) {
+            userNames = userNames.subList(0, LIST_PAGE);
+        }
+        listCursor = more ? userNames.get(LIST_PAGE - 1) : null;
         if (userNames.isEmpty()) {
-            printServerMessage(ONLINE_NONE);
+            printServerMessage(after == null ? ONLINE_NONE : NO_MORE_ONLINE);
             return;
         }
-        userNames.sort(Comparator.naturalOrder());
-        printServerMessage("online: " + String.join(" ", userNames));
+        printServerMessage("online: " + String.join(" ", userNames) + (more ? ONLINE_MORE : ""));
+    }
+
+    private void listQueues() {
+        if (!owner.name().equalsIgnoreCase(ADMIN)) {
+            printServerMessage(NOT_ADMIN);
+            return;
+        }
+        List<String> queues = new ArrayList<>();
+        server.getPresence().forEach((user, session) ->
+                queues.add("%s: %s".formatted(user.name(), session.outbound.getQueue().describe())));
+        queues.sort(Comparator.naturalOrder());
+        printServerMessage("outbound queues:\n" + String.join("\n", queues));
+    }
+
+    private void printMetrics() {
+        if (!owner.name().equalsIgnoreCase(ADMIN)) {
+            printServerMessage(NOT_ADMIN);
+            return;
+        }
+        printServerMessage("metrics:\n" + server.getMetrics().getSnapshot());
     }
 
     private void listUnreadUsers() {
         List<String> userNames = new ArrayList<>();
-        for (Map.Entry<User, Chat> entry : server.getOpenedChats().getUserChats(owner).entrySet()) {
-            if (entry.getValue().haveUnreadMessages(owner)) {
-                userNames.add(entry.getKey().name());
+        for (Chat chat : server.getOpenedChats().getUnreadChats(owner)) {
+            int unread = chat.countUnread(owner);
+            if (unread == 0) {
+                continue;
+            }
+            for (User user : chat.getUsers()) {
+                if (!user.equals(owner)) {
+                    userNames.add("%s (%d)".formatted(user.name(), unread));
+                }
             }
         }
         if (userNames.isEmpty()) {
@@ -367,21 +646,154 @@ public class Session implements Runnable {
         printServerMessage("unread from: " + String.join(" ", userNames));
     }
 
+    private void createRoom(String[] parameters) {
+        if (parameters.length != 1 || parameters[0].isEmpty()) {
+            printServerMessage(ERROR_PARAMETERS_COUNT);
+            return;
+        }
+        exitRoom();
+        Room room = server.getRooms().create(parameters[0], this);
+        if (room == null) {
+            printServerMessage(ROOM_EXISTS.formatted(parameters[0]));
+            return;
+        }
+        enterRoom(room);
+    }
+
+    private void joinRoom(String[] parameters) {
+        if (parameters.length != 1 || parameters[0].isEmpty()) {
+            printServerMessage(ERROR_PARAMETERS_COUNT);
+            return;
+        }
+        exitRoom();
+        Room room = server.getRooms().join(parameters[0], this);
+        if (room == null) {
+            printServerMessage(ROOM_UNKNOWN);
+            return;
+        }
+        enterRoom(room);
+    }
+
+    private void enterRoom(Room room) {
+        leaveChat();
+        activeRoom = room;
+        historyCursor = null;
+        printServerMessage(ROOM_JOINED.formatted(room.getName(), room.size()));
+    }
+
+    private void leaveRoom() {
+        if (activeRoom == null) {
+            printServerMessage(NOT_IN_ROOM);
+            return;
+        }
+        String name = activeRoom.getName();
+        exitRoom();
+        printServerMessage(ROOM_LEFT.formatted(name));
+    }
+
+    // the read marker of the chat is kept in memory while it is open
+    private void leaveChat() {
+        Chat chat = activeChat;
+        if (chat != null) {
+            chat.saveRead(owner);
+            activeChat = null;
+        }
+    }
+
+    private void exitRoom() {
+        if (activeRoom != null) {
+            server.getRooms().leave(activeRoom, this);
+            activeRoom = null;
+        }
+    }
+
+    // the admin channel reaches every online session with a single encoded frame
+    private void broadcast(String text) {
+        if (!owner.name().equalsIgnoreCase(ADMIN)) {
+            printServerMessage(NOT_ADMIN);
+            return;
+        }
+        if (text.isEmpty()) {
+            printServerMessage(ERROR_PARAMETERS_COUNT);
+            return;
+        }
+        Frame frame = broadcastFrame(owner.name(), text);
+        server.getPresence().forEach((user, session) -> session.printFrame(frame));
+        if (!server.forwardBroadcast(owner, text)) {
+            printServerMessage(BROADCAST_INCOMPLETE);
+        }
+    }
+
+    static Frame broadcastFrame(String author, String text) {
+        return new Frame(FrameType.EVENT, 0, author, BROADCAST_SEPARATOR, text);
+    }
+
+    // /protocol 2 [deflate] is the first input of a v2 client, it is acknowledged in the framing it was sent in
+    private void switchProtocol(String[] parameters) {
+        if (parameters.length > 2 || parameters[0].isEmpty()) {
+            printServerMessage(ERROR_PARAMETERS_COUNT);
+            return;
+        }
+        Protocol requested;
+        try {
+            requested = Protocol.of(parameters[0]);
+        } catch (IllegalArgumentException e) {
+            printServerMessage(PROTOCOL_UNKNOWN);
+            return;
+        }
+        Compression compression;
+        try {
+            compression = parameters.length == 2 ? Compression.of(parameters[1]) : Compression.NONE;
+        } catch (IllegalArgumentException e) {
+            printServerMessage(COMPRESSION_UNKNOWN);
+            return;
+        }
+        //the compressed flag only exists in v2 frames
+        if (compression != Compression.NONE && requested == Protocol.V1) {
+            printServerMessage(COMPRESSION_UNKNOWN);
+            return;
+        }
+        if (requested.compareTo(protocol) < 0) {
+            printServerMessage(PROTOCOL_DOWNGRADE);
+            return;
+        }
+        protocol = requested;
+        outbound.upgrade(requested, compression,
+                new Frame(FrameType.REPLY, requestId, requested.getAcknowledgement(compression)));
+        if (receiver != null) {
+            receiver.upgrade(requested);
+        }
+    }
+
+    private void notifyUser(User user, String message) {
+        Session session = server.getPresence().get(user);
+        if (session != null) {
+            session.printEvent(message);
+        } else {
+            server.forwardNotice(user, message);
+        }
+    }
+
     private void exit() {
         //do nothing
     }
 
     private boolean isLoggedIn() {
-        return server.getOnlineSessions().containsKey(owner);
+        return server.getPresence().isOnline(owner);
     }
 
-    private void stopSession() {
+    void stopSession() {
+        server.getMetrics().sessionClosed();
         if (!isLoggedIn()) {
             System.out.println("Client disconnected before login");
             return;
         }
-        server.saveMessages();
-        server.getOnlineSessions().remove(owner);
+        exitRoom();
+        leaveChat();
+        if (server.getPresence().leave(owner, this)) {
+            server.announcePresence(owner, false);
+        }
+        logger.log(Level.INFO, "outbound queue of {0}: {1}", new Object[]{owner.name(), outbound.getQueue().describe()});
         System.out.printf("Client %s disconnected!%n", owner.name());
         logger.info("session: stop");
     }
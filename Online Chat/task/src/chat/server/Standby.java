@@ -0,0 +1,174 @@
+package chat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// a server that follows a primary instead of taking connections: it applies the registry and the message journal
+// of the primary to its own state and takes over once the primary is gone for longer than the failover timeout.
+// It only takes over after it was in sync once, a standby that never caught up does not hold the data.
+public class Standby {
+    private static final int RECONNECT_DELAY = 1000;
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    private final InetSocketAddress primary;
+    private final long failoverMillis;
+    private final LongAdder userRecords = new LongAdder();
+    private final LongAdder messageBytes = new LongAdder();
+    //a journal record cut off at the end of a chunk, completed by the next one
+    private byte[] partial = new byte[0];
+    private int partialLength;
+    private volatile long appliedOffset;
+    private volatile long primaryOffset;
+    private volatile long lastContact;
+    private boolean synced;
+
+    public Standby(Server server, InetSocketAddress primary, long failoverMillis) {
+        this.server = server;
+        this.primary = primary;
+        this.failoverMillis = failoverMillis;
+    }
+
+    // chat.replication.primary is host:port of the primary's replication port, without it the server is a primary
+    public static Standby fromProperties(Server server) {
+        String primary = System.getProperty("chat.replication.primary");
+        if (primary == null || primary.isBlank()) {
+            return null;
+        }
+        String[] parts = primary.trim().split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("replication primary is not host:port: " + primary);
+        }
+        return new Standby(server, new InetSocketAddress(parts[0], Integer.parseInt(parts[1])),
+                Long.getLong("chat.replication.failover.millis", 3000));
+    }
+
+    // blocks while the primary is alive, returns true once this server took over and false if the primary refused it
+    public boolean follow() {
+        long started = System.nanoTime();
+        lastContact = started;
+        logger.log(Level.INFO, "standby: following {0}", primary);
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(primary, RECONNECT_DELAY);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) failoverMillis);
+                if (!receive(socket, started)) {
+                    return false;
+                }
+            } catch (EOFException e) {
+                logger.warning("standby: the primary closed the link");
+            } catch (IOException e) {
+                if (System.nanoTime() - lastContact < TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY)) {
+                    logger.warning("standby: primary lost: " + e.getMessage());
+                }
+            }
+            long silence = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastContact);
+            if (synced && silence >= failoverMillis) {
+                logger.info("standby: promoted after %d ms without the primary, %s".formatted(silence, describe()));
+                return true;
+            }
+            sleep();
+        }
+    }
+
+    private boolean receive(Socket socket, long started) throws IOException {
+        BinaryReader reader = new BinaryReader(socket.getInputStream());
+        BinaryWriter writer = new BinaryWriter(socket.getOutputStream());
+        MessageJournal journal = server.getMessageJournal();
+        partialLength = 0;
+        appliedOffset = journal.getLength();
+        writer.writeBytes(Replication.encode(record -> {
+            record.writeByte(Replication.HELLO);
+            record.writeVarLong(appliedOffset);
+        }));
+        writer.flush();
+        //user records are not acknowledged on their own, they are forced with the next acknowledgement
+        boolean usersApplied = false;
+        while (true) {
+            BinaryReader record = new BinaryReader(reader.readBytes());
+            lastContact = System.nanoTime();
+            int type = record.readByte();
+            //the send time of the primary is echoed back, so the lag is measured on its clock
+            long sentNanos;
+            switch (type) {
+                case Replication.USERS -> {
+                    server.getUserJournal().applyReplicated(record.readBytes());
+                    userRecords.increment();
+                    usersApplied = true;
+                    continue;
+                }
+                case Replication.MESSAGES -> sentNanos = applyMessages(record, journal);
+                case Replication.HEARTBEAT -> {
+                    primaryOffset = record.readVarLong();
+                    sentNanos = record.readVarLong();
+                }
+                case Replication.REJECT -> {
+                    logger.severe("standby: refused by the primary, " + record.readString()
+                            + "; restart it with an empty data directory");
+                    return false;
+                }
+                default -> throw new IOException("unknown replication record: " + type);
+            }
+            if (usersApplied) {
+                server.getUserJournal().force();
+                usersApplied = false;
+            }
+            writer.writeBytes(Replication.encode(ack -> {
+                ack.writeByte(Replication.ACK);
+                ack.writeVarLong(appliedOffset);
+                ack.writeVarLong(sentNanos);
+            }));
+            writer.flush();
+            if (!synced && appliedOffset >= primaryOffset) {
+                synced = true;
+                logger.info("standby: in sync after %d ms, %s".formatted(
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), describe()));
+            }
+        }
+    }
+
+    private long applyMessages(BinaryReader record, MessageJournal journal) throws IOException {
+        long offset = record.readVarLong();
+        primaryOffset = record.readVarLong();
+        long sentNanos = record.readVarLong();
+        byte[] chunk = record.readBytes();
+        if (offset != appliedOffset + partialLength) {
+            throw new IOException("replication gap at journal offset " + offset);
+        }
+        if (partial.length < partialLength + chunk.length) {
+            partial = Arrays.copyOf(partial, Math.max(partialLength + chunk.length, partial.length * 2));
+        }
+        System.arraycopy(chunk, 0, partial, partialLength, chunk.length);
+        partialLength += chunk.length;
+        int taken = journal.appendReplicated(partial, partialLength, server.getOpenedChats());
+        System.arraycopy(partial, taken, partial, 0, partialLength - taken);
+        partialLength -= taken;
+        appliedOffset += taken;
+        messageBytes.add(chunk.length);
+        return sentNanos;
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(RECONNECT_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getLagBytes() {
+        return Math.max(0, primaryOffset - appliedOffset);
+    }
+
+    public String describe() {
+        return "applied %d of %d journal bytes, behind %d, user records %d, message bytes %d".formatted(
+                appliedOffset, primaryOffset, getLagBytes(), userRecords.sum(), messageBytes.sum());
+    }
+}
@@ -0,0 +1,162 @@
+package chat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// the connection of the primary to one standby, written by its own thread while another one reads the acknowledgements
+public class StandbyLink implements Runnable {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long POLL_MILLIS = 50;
+    private final Logger logger = Logger.getGlobal();
+    private final Server server;
+    private final Socket socket;
+    private final SocketAddress address;
+    private final BlockingQueue<byte[]> userRecords = new LinkedBlockingQueue<>();
+    private final Consumer<byte[]> follower = userRecords::add;
+    private volatile long sentOffset;
+    private volatile long ackedOffset;
+    //from sending a record to its acknowledgement, measured on the clock of the primary only
+    private volatile long lagNanos;
+    private volatile long maxLagNanos;
+
+    public StandbyLink(Server server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+        this.address = socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public void run() {
+        MessageJournal journal = server.getMessageJournal();
+        try (socket; BinaryReader reader = new BinaryReader(socket.getInputStream())) {
+            BinaryWriter writer = new BinaryWriter(socket.getOutputStream());
+            BinaryReader hello = new BinaryReader(reader.readBytes());
+            if (hello.readByte() != Replication.HELLO) {
+                throw new IOException("replication link without a hello");
+            }
+            long offset = hello.readVarLong();
+            long committed = journal.getCommittedLength();
+            if (offset > committed) {
+                //the standby holds records this primary lost, following it would fork the history
+                writer.writeBytes(Replication.encode(record -> {
+                    record.writeByte(Replication.REJECT);
+                    record.writeString("standby has %d journal bytes, the primary only %d".formatted(offset, committed));
+                }));
+                writer.flush();
+                logger.warning("standby " + address + " rejected, it is ahead of the primary");
+                return;
+            }
+            sentOffset = offset;
+            ackedOffset = offset;
+            List<byte[]> registry = server.getUserJournal().follow(follower);
+            logger.log(Level.INFO, "standby {0}: connected at journal offset {1}", new Object[]{address, offset});
+            Replication.startThread(() -> readAcks(reader), "replication-ack");
+            for (byte[] record : registry) {
+                writeUserRecord(writer, record);
+            }
+            stream(writer, journal);
+        } catch (EOFException e) {
+            logger.info("standby disconnected: " + describe());
+        } catch (IOException e) {
+            logger.warning("standby " + address + " error: " + e.getMessage() + ", " + describe());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.getUserJournal().unfollow(follower);
+        }
+    }
+
+    // the committed length is taken before the registry records are drained, so every user a sent message refers to
+    // has been sent ahead of it
+    private void stream(BinaryWriter writer, MessageJournal journal) throws IOException, InterruptedException {
+        List<byte[]> batch = new ArrayList<>();
+        long lastFlush = System.nanoTime();
+        while (true) {
+            long committed = journal.awaitCommitted(sentOffset, POLL_MILLIS);
+            userRecords.drainTo(batch);
+            for (byte[] record : batch) {
+                writeUserRecord(writer, record);
+            }
+            boolean sent = !batch.isEmpty();
+            batch.clear();
+            while (sentOffset < committed) {
+                long offset = sentOffset;
+                byte[] chunk = journal.readCommitted(offset, (int) Math.min(CHUNK_SIZE, committed - offset));
+                long now = System.nanoTime();
+                writer.writeBytes(Replication.encode(record -> {
+                    record.writeByte(Replication.MESSAGES);
+                    record.writeVarLong(offset);
+                    record.writeVarLong(committed);
+                    record.writeVarLong(now);
+                    record.writeBytes(chunk);
+                }));
+                sentOffset = offset + chunk.length;
+                sent = true;
+            }
+            long now = System.nanoTime();
+            if (!sent && now - lastFlush < Replication.HEARTBEAT_MILLIS * 1_000_000) {
+                continue;
+            }
+            if (!sent) {
+                writer.writeBytes(Replication.encode(record -> {
+                    record.writeByte(Replication.HEARTBEAT);
+                    record.writeVarLong(committed);
+                    record.writeVarLong(now);
+                }));
+            }
+            writer.flush();
+            lastFlush = now;
+        }
+    }
+
+    private static void writeUserRecord(BinaryWriter writer, byte[] userRecord) throws IOException {
+        writer.writeBytes(Replication.encode(record -> {
+            record.writeByte(Replication.USERS);
+            record.writeBytes(userRecord);
+        }));
+    }
+
+    private void readAcks(BinaryReader reader) {
+        try {
+            while (true) {
+                BinaryReader ack = new BinaryReader(reader.readBytes());
+                if (ack.readByte() != Replication.ACK) {
+                    throw new IOException("unexpected record from the standby");
+                }
+                ackedOffset = ack.readVarLong();
+                lagNanos = System.nanoTime() - ack.readVarLong();
+                maxLagNanos = Math.max(maxLagNanos, lagNanos);
+            }
+        } catch (IOException e) {
+            //the sender sees the closed socket too and ends the link
+            try {
+                socket.close();
+            } catch (IOException closeError) {
+                logger.warning("standby " + address + " closing error: " + closeError.getMessage());
+            }
+        }
+    }
+
+    // journal bytes the standby has not acknowledged yet
+    public long getLagBytes() {
+        return Math.max(0, server.getMessageJournal().getCommittedLength() - ackedOffset);
+    }
+
+    public double getLagMillis() {
+        return lagNanos / 1e6;
+    }
+
+    public String describe() {
+        return "%s sent %d, acknowledged %d, behind %d bytes, lag %.3f ms (max %.3f ms)".formatted(address,
+                sentOffset, ackedOffset, getLagBytes(), getLagMillis(), maxLagNanos / 1e6);
+    }
+}
@@ -0,0 +1,25 @@
+package chat.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// chats with unread messages per user, maintained by Chat whenever a message or a read marker changes
+public class UnreadIndex {
+    private final Map<User, Set<Chat>> unread = new ConcurrentHashMap<>();
+
+    void update(User user, Chat chat, boolean hasUnread) {
+        if (hasUnread) {
+            unread.computeIfAbsent(user, key -> ConcurrentHashMap.newKeySet()).add(chat);
+            return;
+        }
+        Set<Chat> chats = unread.get(user);
+        if (chats != null) {
+            chats.remove(chat);
+        }
+    }
+
+    public Set<Chat> getUnreadChats(User user) {
+        return unread.getOrDefault(user, Set.of());
+    }
+}
@@ -0,0 +1,384 @@
+package chat.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class UserJournal implements Closeable {
+    private static final int FORMAT_VERSION = 1;
+    private static final int REGISTER = 1;
+    private static final int GRANT = 2;
+    private static final int REVOKE = 3;
+    private static final int BAN = 4;
+    private final Logger logger = Logger.getGlobal();
+    private final Path path;
+    private final Path snapshotPath;
+    private final Path legacyPath;
+    private final DurabilityMode mode;
+    private final int compactRecords;
+    private final Lock lock = new ReentrantLock();
+    //standbys of this server, they get every record in the order it was written
+    private final List<Consumer<byte[]>> followers = new CopyOnWriteArrayList<>();
+    private final Histogram syncNanos = new Histogram();
+    private UsersCollection users = new UsersCollection();
+    private FileChannel channel;
+    private int records;
+
+    @FunctionalInterface
+    private interface RecordBody {
+        void write(BinaryWriter writer) throws IOException;
+    }
+
+    public UserJournal(Path path, Path snapshotPath, Path legacyPath, DurabilityMode mode, int compactRecords) {
+        this.path = path;
+        this.snapshotPath = snapshotPath;
+        this.legacyPath = legacyPath;
+        this.mode = mode;
+        this.compactRecords = compactRecords;
+    }
+
+    public static UserJournal fromProperties(Path path, Path snapshotPath, Path legacyPath) {
+        return new UserJournal(path, snapshotPath, legacyPath,
+                DurabilityMode.of(System.getProperty("chat.users.durability", DurabilityMode.SYNC.toString())),
+                Integer.getInteger("chat.users.compact.records", 1024));
+    }
+
+    public UsersCollection getUsers() {
+        return users;
+    }
+
+    public List<User> snapshot() {
+        lock.lock();
+        try {
+            List<User> snapshot = new ArrayList<>(users.size());
+            for (int id = 0; id < users.size(); id++) {
+                snapshot.add(users.getUser(id));
+            }
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // snapshot first, then the journal records written after it
+    public UsersCollection load() {
+        boolean legacy = false;
+        if (Files.exists(snapshotPath)) {
+            try (BinaryReader reader = new BinaryReader(Files.newInputStream(snapshotPath))) {
+                users = UsersCollection.read(reader);
+            } catch (IOException e) {
+                logger.warning("error users loading: " + e.getMessage());
+            }
+        } else if (Files.exists(legacyPath)) {
+            try (InputStream inputStream = Files.newInputStream(legacyPath);
+                 ObjectInputStream objectInputStream = new LegacyObjectInputStream(inputStream)) {
+                users = (UsersCollection) objectInputStream.readObject();
+                legacy = true;
+            } catch (IOException e) {
+                logger.warning("error users loading: " + e.getMessage());
+            } catch (ClassNotFoundException e) {
+                logger.warning("deserialization error: " + e.getMessage());
+            }
+        }
+        if (Files.exists(path)) {
+            replay();
+        }
+        //forces a snapshot in the current format on open
+        records = legacy ? Integer.MAX_VALUE : records;
+        logger.info("userdb loaded");
+        return users;
+    }
+
+    private void replay() {
+        long validLength = 0;
+        try (BinaryReader reader = new BinaryReader(Files.newInputStream(path))) {
+            int version = reader.readHeader();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported users journal format version: " + version);
+            }
+            validLength = Integer.BYTES + BinaryWriter.varIntSize(version);
+            while (true) {
+                byte[] record = reader.readBytes();
+                apply(new BinaryReader(record));
+                validLength += BinaryWriter.varIntSize(record.length) + record.length;
+                records++;
+            }
+        } catch (EOFException e) {
+            truncate(validLength);
+        } catch (IOException e) {
+            logger.warning("users journal reading error: " + e.getMessage());
+        }
+        logger.log(Level.INFO, "users journal replayed, records: {0}", records);
+    }
+
+    // records already covered by the snapshot are applied again harmlessly
+    private void apply(BinaryReader record) throws IOException {
+        int type = record.readByte();
+        if (type == REGISTER) {
+            users.addUser(new User(record.readString(), record.readSignedVarInt()));
+            return;
+        }
+        User user = users.getUser(record.readVarInt());
+        if (user == null) {
+            logger.warning("users journal record for unknown user skipped");
+            return;
+        }
+        switch (type) {
+            case GRANT -> {
+                if (!users.isModerator(user)) {
+                    users.grant(user);
+                }
+            }
+            case REVOKE -> users.revoke(user);
+            case BAN -> {
+                if (!users.isBanned(user)) {
+                    users.ban(user);
+                }
+            }
+            default -> logger.warning("unknown users journal record: " + type);
+        }
+    }
+
+    private void truncate(long validLength) {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (file.size() > validLength) {
+                logger.warning("torn users journal tail dropped, bytes: " + (file.size() - validLength));
+                file.truncate(validLength);
+            }
+        } catch (IOException e) {
+            logger.warning("users journal truncating error: " + e.getMessage());
+        }
+    }
+
+    public void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            writeHeader();
+        }
+        channel.position(channel.size());
+        compactIfNeeded();
+        logger.log(Level.INFO, "users journal opened, durability: {0}", mode);
+    }
+
+    // returns false if the name is already taken
+    public boolean register(User user) {
+        lock.lock();
+        try {
+            if (users.addUser(user) != null) {
+                return false;
+            }
+            append(registerRecord(user));
+        } finally {
+            lock.unlock();
+        }
+        force();
+        return true;
+    }
+
+    public void grant(User user) {
+        lock.lock();
+        try {
+            users.grant(user);
+            appendFlag(GRANT, user);
+        } finally {
+            lock.unlock();
+        }
+        force();
+    }
+
+    public void revoke(User user) {
+        lock.lock();
+        try {
+            users.revoke(user);
+            appendFlag(REVOKE, user);
+        } finally {
+            lock.unlock();
+        }
+        force();
+    }
+
+    public void ban(User user) {
+        lock.lock();
+        try {
+            users.ban(user);
+            appendFlag(BAN, user);
+        } finally {
+            lock.unlock();
+        }
+        force();
+    }
+
+    private void appendFlag(int type, User user) {
+        append(flagRecord(type, user));
+    }
+
+    // the records that rebuild the registry on a standby, every later record is passed to the follower as it is written
+    public List<byte[]> follow(Consumer<byte[]> follower) {
+        lock.lock();
+        try {
+            List<byte[]> records = new ArrayList<>(users.size());
+            for (int id = 0; id < users.size(); id++) {
+                User user = users.getUser(id);
+                records.add(registerRecord(user));
+                if (users.isModerator(user)) {
+                    records.add(flagRecord(GRANT, user));
+                }
+                if (users.isBanned(user)) {
+                    records.add(flagRecord(BAN, user));
+                }
+            }
+            followers.add(follower);
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unfollow(Consumer<byte[]> follower) {
+        followers.remove(follower);
+    }
+
+    // a standby applies the records of its primary in their order, so every user gets the same id on both
+    public void applyReplicated(byte[] record) throws IOException {
+        lock.lock();
+        try {
+            apply(new BinaryReader(record));
+            append(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] registerRecord(User user) {
+        return encode(writer -> {
+            writer.writeByte(REGISTER);
+            writer.writeString(user.name());
+            writer.writeSignedVarInt(user.passwordHash());
+        });
+    }
+
+    private byte[] flagRecord(int type, User user) {
+        return encode(writer -> {
+            writer.writeByte(type);
+            writer.writeVarInt(users.getId(user));
+        });
+    }
+
+    private static byte[] encode(RecordBody body) {
+        BinaryWriter writer = new BinaryWriter();
+        try {
+            body.write(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toByteArray();
+    }
+
+    private void append(byte[] payload) {
+        for (Consumer<byte[]> follower : followers) {
+            follower.accept(payload);
+        }
+        if (channel == null) {
+            return;
+        }
+        BinaryWriter record = new BinaryWriter();
+        try {
+            record.writeBytes(payload);
+            ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            records++;
+            compactIfNeeded();
+        } catch (IOException e) {
+            logger.warning("users journal writing error: " + e.getMessage());
+        }
+    }
+
+    // syncs outside the lock, so concurrent registrations share one flush
+    void force() {
+        if (channel == null || mode == DurabilityMode.OS) {
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            logger.warning("users journal writing error: " + e.getMessage());
+        }
+        syncNanos.record(System.nanoTime() - started);
+    }
+
+    public Histogram getSyncHistogram() {
+        return syncNanos;
+    }
+
+    // the snapshot is rewritten once the journal holds as many records as there are users,
+    // which keeps the amortized cost of a record constant; the journal is only emptied once the new snapshot and its
+    // name are on disk, a crash in between leaves the old snapshot or the new one and the full journal
+    private void compactIfNeeded() throws IOException {
+        if (records < Math.max(compactRecords, users.size())) {
+            return;
+        }
+        //a failed compaction is retried after as many records again, not on every record
+        records = 0;
+        Path temporaryPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        BinaryWriter writer = new BinaryWriter();
+        users.write(writer);
+        ByteBuffer snapshot = ByteBuffer.wrap(writer.toByteArray());
+        try (FileChannel file = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                file.write(snapshot);
+            }
+            file.force(true);
+        }
+        Files.move(temporaryPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(snapshotPath.toAbsolutePath().getParent());
+        channel.truncate(0);
+        writeHeader();
+        channel.force(false);
+        logger.log(Level.INFO, "users snapshot saved, users: {0}", users.size());
+    }
+
+    // makes a rename durable, the new directory entry is only on disk once the directory itself is synced
+    private static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel file = FileChannel.open(directory, StandardOpenOption.READ)) {
+            file.force(true);
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        BinaryWriter header = new BinaryWriter();
+        header.writeHeader(FORMAT_VERSION);
+        channel.write(ByteBuffer.wrap(header.toByteArray()), 0);
+        channel.position(channel.size());
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("users journal closing error: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,24 +1,49 @@
 package chat.server;
 
+import java.io.IOException;
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+// read without locking by every session and the journals, changes are made one at a time under the lock
 public class UsersCollection implements Serializable {
     @Serial
     private static final long serialVersionUID = 12L;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MODERATOR = 1;
+    private static final int BANNED = 2;
 
-    private Map<String, User> users = new HashMap<>();
-    private List<User> moderators = new ArrayList<>();
-    private List<User> banned = new ArrayList<>();
+    private Map<String, User> users = new ConcurrentHashMap<>();
+    private List<User> moderators = new CopyOnWriteArrayList<>();
+    private List<User> banned = new CopyOnWriteArrayList<>();
+    //a user is stored in the array before the count covering it is published
+    private transient volatile User[] usersById = new User[16];
+    private transient volatile int count;
+    private transient Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private transient Lock lock = new ReentrantLock();
 
     public User getUser(String name) {
         return users.get(name);
     }
 
+    public User getUser(int id) {
+        return id >= 0 && id < count ? usersById[id] : null;
+    }
+
+    public int getId(User user) {
+        return ids.getOrDefault(user.name(), -1);
+    }
+
+    public int size() {
+        return count;
+    }
+
     public boolean isRegistered(String name) {
         return users.containsKey(name);
     }
@@ -31,9 +56,29 @@ public class UsersCollection implements Serializable {
         return banned.contains(user);
     }
 
+    // the name is taken last, so a registered user always has an id
     public User addUser(User user) {
-        return users.putIfAbsent(user.name(), user);
+        lock.lock();
+        try {
+            User previous = users.get(user.name());
+            if (previous != null) {
+                return previous;
+            }
+            User[] array = usersById;
+            if (count == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[count] = user;
+            usersById = array;
+            ids.put(user.name(), count);
+            count++;
+            users.put(user.name(), user);
+            return null;
+        } finally {
+            lock.unlock();
+        }
     }
+
     public void grant(User user) {
         moderators.add(user);
     }
@@ -45,4 +90,47 @@ public class UsersCollection implements Serializable {
     public void ban(User user) {
         banned.add(user);
     }
+
+    public void write(BinaryWriter writer) throws IOException {
+        writer.writeHeader(FORMAT_VERSION);
+        int size = count;
+        User[] array = usersById;
+        writer.writeVarInt(size);
+        for (User user : Arrays.copyOf(array, size)) {
+            writer.writeString(user.name());
+            writer.writeSignedVarInt(user.passwordHash());
+            writer.writeByte((isModerator(user) ? MODERATOR : 0) | (isBanned(user) ? BANNED : 0));
+        }
+    }
+
+    public static UsersCollection read(BinaryReader reader) throws IOException {
+        int version = reader.readHeader();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported users format version: " + version);
+        }
+        UsersCollection collection = new UsersCollection();
+        int count = reader.readVarInt();
+        for (int i = 0; i < count; i++) {
+            User user = new User(reader.readString(), reader.readSignedVarInt());
+            int flags = reader.readByte();
+            collection.addUser(user);
+            if ((flags & MODERATOR) != 0) {
+                collection.grant(user);
+            }
+            if ((flags & BANNED) != 0) {
+                collection.ban(user);
+            }
+        }
+        return collection;
+    }
+
+    // legacy java-serialized collections carry no user ids, they are assigned on load
+    @Serial
+    private Object readResolve() {
+        UsersCollection collection = new UsersCollection();
+        users.values().forEach(collection::addUser);
+        moderators.forEach(collection::grant);
+        banned.forEach(collection::ban);
+        return collection;
+    }
 }